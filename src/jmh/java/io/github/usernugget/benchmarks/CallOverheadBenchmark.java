@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.benchmarks;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.handlers.types.annotations.Tail;
+import io.github.usernugget.redefiner.throwables.InitializationException;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import io.github.usernugget.redefiner.util.asm.reflect.Reflection;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.concurrent.TimeUnit;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady-state cost of calling injected code and {@link Reflection} wrappers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.misc=ALL-UNNAMED")
+public class CallOverheadBenchmark {
+  public static final class TargetMapping {
+    @Head(method = "method0(I)I")
+    public static void head(int value) {
+      if (value < 0) {
+        Op.returnOp(0);
+      }
+    }
+
+    @Tail(method = "method0(I)I")
+    public static void tail(int value) {
+      if (value < 0) {
+        Op.returnOp(1);
+      }
+    }
+  }
+
+  public static final class Secret {
+    private static int hidden(int value) {
+      return value * 31 + 7;
+    }
+  }
+
+  private static final MethodType TYPE = MethodType.methodType(int.class, int.class);
+
+  // Targets depend on @Param, call sites keep them constant for the JIT once set in setup
+  private static final MutableCallSite PLAIN = new MutableCallSite(TYPE);
+  private static final MutableCallSite INJECTED = new MutableCallSite(TYPE);
+  private static final MutableCallSite DIRECT = new MutableCallSite(TYPE);
+  private static final MutableCallSite WRAPPER = new MutableCallSite(TYPE);
+
+  private static final MethodHandle PLAIN_INVOKER = PLAIN.dynamicInvoker();
+  private static final MethodHandle INJECTED_INVOKER = INJECTED.dynamicInvoker();
+  private static final MethodHandle DIRECT_INVOKER = DIRECT.dynamicInvoker();
+  private static final MethodHandle WRAPPER_INVOKER = WRAPPER.dynamicInvoker();
+
+  @Param({ "8", "512" })
+  public int methods;
+
+  public int value = 16;
+
+  private ClassRedefiner redefiner;
+
+  @Setup(Level.Trial)
+  public void setup() throws InitializationException, ReflectiveOperationException, IOException {
+    this.redefiner = new ClassRedefiner(new StandardAttachTypes(), new StandardHandlerTypes());
+    this.redefiner.initializeAgent();
+
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    Class<?> plainTarget = SyntheticTargets.define("Plain", this.methods);
+    PLAIN.setTarget(lookup.findStatic(plainTarget, "method0", TYPE));
+
+    Class<?> injectedTarget = SyntheticTargets.define("Injected", this.methods);
+    this.redefiner.transformClass(injectedTarget, TargetMapping.class);
+    INJECTED.setTarget(lookup.findStatic(injectedTarget, "method0", TYPE));
+
+    DIRECT.setTarget(MethodHandles.privateLookupIn(Secret.class, lookup).findStatic(Secret.class, "hidden", TYPE));
+
+    ClassSerializer serializer = this.redefiner.getClassSerializer();
+    ClassMethod hidden = serializer.readClass(Secret.class, ClassReader.SKIP_CODE)
+      .findMethod("hidden", "(I)I");
+
+    Reflection reflection = new Reflection();
+    ClassMethod wrapperMethod = reflection.wrapMethod(hidden);
+
+    ClassLoader classLoader = Secret.class.getClassLoader();
+    reflection.defineClasses(serializer, classLoader, classLoader);
+
+    Class<?> wrapperClass = Class.forName(
+      reflection.getTargetInterface().name.replace('/', '.'), true, classLoader
+    );
+    WRAPPER.setTarget(lookup.findStatic(wrapperClass, wrapperMethod.name, TYPE));
+    MutableCallSite.syncAll(new MutableCallSite[] { PLAIN, INJECTED, DIRECT, WRAPPER });
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.redefiner.close();
+  }
+
+  @Benchmark
+  public int plain() throws Throwable {
+    return (int) PLAIN_INVOKER.invokeExact(this.value);
+  }
+
+  @Benchmark
+  public int injected() throws Throwable {
+    return (int) INJECTED_INVOKER.invokeExact(this.value);
+  }
+
+  @Benchmark
+  public int direct() throws Throwable {
+    return (int) DIRECT_INVOKER.invokeExact(this.value);
+  }
+
+  @Benchmark
+  public int wrapper() throws Throwable {
+    return (int) WRAPPER_INVOKER.invokeExact(this.value);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.benchmarks;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.throwables.InitializationException;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import io.github.usernugget.redefiner.util.asm.reflect.Reflection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of mappings that reach classes invisible to the target classloader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.misc=ALL-UNNAMED")
+public class CrossClassLoaderBenchmark {
+  // Loaded by ClassLoader A
+  public static final class A {
+    public static int test(boolean value) {
+      return 0;
+    }
+  }
+
+  // Loaded by ClassLoader B
+  public static final class B {
+    private int value = 1;
+
+    public static int compute() {
+      return new B().value;
+    }
+  }
+
+  @Mapping(targetClassName = "io.github.usernugget.benchmarks.CrossClassLoaderBenchmark$A")
+  public static final class BMapping {
+    @Head
+    public static void test(boolean value) {
+      if (value) {
+        Op.returnOp(B.compute());
+      }
+    }
+  }
+
+  private ClassRedefiner redefiner;
+  private ClassSerializer serializer;
+
+  private ClassLoader a;
+  private ClassLoader b;
+  private Class<?> target;
+
+  private ClassFile wrapped;
+
+  @Setup(Level.Trial)
+  public void setup() throws InitializationException, ClassNotFoundException, IOException {
+    this.redefiner = new ClassRedefiner(new StandardAttachTypes(), new StandardHandlerTypes());
+    this.redefiner.initializeAgent();
+    this.serializer = this.redefiner.getClassSerializer();
+
+    this.a = new IsolatedClassLoader(ClassLoader.getPlatformClassLoader(), A.class.getName());
+    this.b = new IsolatedClassLoader(this.a, B.class.getName());
+    this.target = this.a.loadClass(A.class.getName());
+
+    this.wrapped = this.serializer.readClass(B.class, ClassReader.SKIP_CODE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.redefiner.close();
+  }
+
+  @Benchmark
+  public Reflection defineWrappers() {
+    Reflection reflection = new Reflection();
+    reflection.wrapMethod(this.wrapped.findMethod("compute", "()I"));
+    reflection.wrapGetter(this.wrapped.findField("value", "I"));
+
+    // Throwaway loader, so generated classes can be unloaded
+    ClassLoader classLoader = new ClassLoader(this.b) { };
+    reflection.defineClasses(this.serializer, classLoader, classLoader);
+    return reflection;
+  }
+
+  @Benchmark
+  public boolean transformAndRevert() throws ClassNotFoundException {
+    this.redefiner.transformClass(this.b, BMapping.class);
+    return this.redefiner.revert(this.target);
+  }
+
+  private static final class IsolatedClassLoader extends ClassLoader {
+    private final Set<String> classNames;
+
+    public IsolatedClassLoader(ClassLoader parent, String... classNames) {
+      super(parent);
+      this.classNames = Set.of(classNames);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!this.classNames.contains(name)) {
+        return super.loadClass(name, resolve);
+      }
+
+      synchronized (this.getClassLoadingLock(name)) {
+        Class<?> klass = this.findLoadedClass(name);
+        if (klass != null) {
+          return klass;
+        }
+
+        String resource = name.replace('.', '/') + ".class";
+        try (InputStream in = CrossClassLoaderBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+          if (in == null) {
+            throw new ClassNotFoundException(name);
+          }
+
+          byte[] classData = in.readAllBytes();
+          return this.defineClass(name, classData, 0, classData.length);
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+      if (this.classNames.contains(name.replace('/', '.').replace(".class", ""))) {
+        return CrossClassLoaderBenchmark.class.getClassLoader().getResourceAsStream(name);
+      }
+
+      return super.getResourceAsStream(name);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.benchmarks;
+
+import io.github.usernugget.redefiner.agent.AbstractAgent;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Agent that rewrites classes without redefining them, used to measure the rewrite stage alone
+ */
+public class DryRunAgent extends AbstractAgent {
+  private final AbstractAgent agent;
+  private final Map<Class<?>, byte[]> classData;
+  private byte[] lastResult;
+
+  /**
+   * @param classData pre-dumped bytes of targets, passed to modifiers instead of dumping again
+   */
+  public DryRunAgent(AbstractAgent agent, Map<Class<?>, byte[]> classData) {
+    this.agent = agent;
+    this.classData = classData;
+  }
+
+  public byte[] getLastResult() {
+    return this.lastResult;
+  }
+
+  @Override
+  public boolean isAccessible(Class<?> klass) {
+    return this.agent.isAccessible(klass);
+  }
+
+  @Override
+  public void rewriteClass(Class<?> klass, BiFunction<byte[], ClassLoader, byte[]> modifier) {
+    this.lastResult = modifier.apply(this.dumpClass(klass), klass.getClassLoader());
+  }
+
+  @Override
+  public void rewriteClasses(Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers) {
+    modifiers.forEach(this::rewriteClass);
+  }
+
+  @Override
+  public byte[] dumpClass(Class<?> klass) {
+    byte[] classData = this.classData.get(klass);
+    return classData != null ? classData : this.agent.dumpClass(klass);
+  }
+
+  @Override
+  public byte[][] dumpClasses(Class<?>... klasses) {
+    byte[][] classData = new byte[klasses.length][];
+    for (int i = 0; i < klasses.length; i++) {
+      classData[i] = this.dumpClass(klasses[i]);
+    }
+
+    return classData;
+  }
+
+  @Override
+  public boolean deferClass(
+    ClassLoader classLoader, String className, BiFunction<byte[], ClassLoader, byte[]> modifier
+  ) {
+    return false;
+  }
+
+  @Override
+  public int revertClasses(Class<?>... klasses) {
+    return 0;
+  }
+
+  @Override
+  public int revertAll() {
+    return 0;
+  }
+
+  @Override
+  public int getCapabilities() {
+    return this.agent.getCapabilities();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.benchmarks;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.handlers.types.annotations.Tail;
+import io.github.usernugget.redefiner.throwables.InitializationException;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of every stage of a redefinition: dump, parse, handlers, frame computation and redefine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.misc=ALL-UNNAMED")
+public class PipelineBenchmark {
+  public static final class TargetMapping {
+    @Head
+    public static void method0(int value) {
+      if (value < 0) {
+        Op.returnOp(0);
+      }
+    }
+
+    @Tail
+    public static void method1(int value) {
+      if (value < 0) {
+        Op.returnOp(1);
+      }
+    }
+  }
+
+  @Param({ "8", "512" })
+  public int methods;
+
+  private ClassRedefiner redefiner;
+  private ClassRedefiner dryRedefiner;
+  private ClassSerializer serializer;
+
+  private Class<?> target;
+  private byte[] classData;
+  private byte[] rewrittenData;
+
+  @Setup(Level.Trial)
+  public void setup() throws InitializationException, IOException {
+    this.redefiner = new ClassRedefiner(new StandardAttachTypes(), new StandardHandlerTypes());
+    this.redefiner.initializeAgent();
+    this.serializer = this.redefiner.getClassSerializer();
+
+    this.target = SyntheticTargets.define("Pipeline", this.methods);
+    this.classData = this.serializer.dumpClass(this.target);
+
+    DryRunAgent agent = new DryRunAgent(this.redefiner.getAgent(), Map.of(this.target, this.classData));
+    this.dryRedefiner = new ClassRedefiner(new StandardAttachTypes(), new StandardHandlerTypes());
+    this.dryRedefiner.setAgent(agent);
+
+    this.dryRedefiner.transformClass(this.target, TargetMapping.class);
+    this.rewrittenData = agent.getLastResult();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.redefiner.close();
+  }
+
+  @Benchmark
+  public byte[] dump() throws IOException {
+    return this.serializer.dumpClass(this.target);
+  }
+
+  @Benchmark
+  public ClassFile parse() {
+    return this.serializer.readClass(this.classData, 0);
+  }
+
+  @Benchmark
+  public byte[] computeFrames() {
+    ClassFile classFile = this.serializer.readClass(this.classData, 0);
+    return this.serializer.writeClass(
+      classFile, this.target.getClassLoader(), ClassWriter.COMPUTE_FRAMES
+    );
+  }
+
+  @Benchmark
+  public byte[] computeFramesIncremental() {
+    ClassFile classFile = this.serializer.readClass(this.classData, 0);
+    classFile.findMethod("method0", "(I)I").markDirty();
+    return this.serializer.writeClassIncremental(classFile, this.target.getClassLoader());
+  }
+
+  @Benchmark
+  public byte[] handlers() {
+    // Parse, handlers and write, without dump and redefine
+    this.dryRedefiner.transformClass(this.target, TargetMapping.class);
+    return ((DryRunAgent) this.dryRedefiner.getAgent()).getLastResult();
+  }
+
+  @Benchmark
+  public void redefine() {
+    this.redefiner.getAgent().rewriteClass(this.target, (classData, classLoader) -> this.rewrittenData);
+  }
+
+  @Benchmark
+  public boolean transformAndRevert() {
+    // Reverted, otherwise every invocation would inject into already injected code
+    this.redefiner.transformClass(this.target, TargetMapping.class);
+    return this.redefiner.revert(this.target);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.benchmarks;
+
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.LabelNode;
+
+/**
+ * Generates targets with a configurable amount of methods
+ * <p>
+ * Every method is {@code static int methodN(int)} with a loop, so frames are required.
+ */
+public final class SyntheticTargets {
+  private SyntheticTargets() {
+  }
+
+  public static Class<?> define(String name, int methods) {
+    ClassFile classFile = new ClassFile(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
+      "io/github/usernugget/benchmarks/generated/" + name + "_" + ClassFile.generateClassEnding()
+    );
+
+    for (int i = 0; i < methods; i++) {
+      visitMethod(classFile, "method" + i, i);
+    }
+
+    byte[] classData = new ClassSerializer(null).writeClass(
+      classFile, new ClassWriter(ClassWriter.COMPUTE_FRAMES)
+    );
+
+    return new TargetLoader(classFile.name, classData).define();
+  }
+
+  // sum = 0; for (i = 0; i < value; i++) sum += i ^ salt; return sum;
+  private static void visitMethod(ClassFile classFile, String name, int salt) {
+    ClassMethod method = classFile.visitMethod(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, "(I)I"
+    );
+
+    LabelNode loop = new LabelNode();
+    LabelNode end = new LabelNode();
+
+    Insns insns = method.getInstructions();
+    insns.ldc(0);
+    insns.varOp(Opcodes.ISTORE, 1);
+    insns.ldc(0);
+    insns.varOp(Opcodes.ISTORE, 2);
+    insns.add(loop);
+    insns.varOp(Opcodes.ILOAD, 2);
+    insns.varOp(Opcodes.ILOAD, 0);
+    insns.jumpOp(Opcodes.IF_ICMPGE, end);
+    insns.varOp(Opcodes.ILOAD, 1);
+    insns.varOp(Opcodes.ILOAD, 2);
+    insns.ldc(salt);
+    insns.op(Opcodes.IXOR);
+    insns.op(Opcodes.IADD);
+    insns.varOp(Opcodes.ISTORE, 1);
+    insns.iincOp(2, 1);
+    insns.jumpOp(Opcodes.GOTO, loop);
+    insns.add(end);
+    insns.varOp(Opcodes.ILOAD, 1);
+    insns.op(Opcodes.IRETURN);
+
+    method.maxStack = 3;
+    method.maxLocals = 3;
+  }
+
+  private static final class TargetLoader extends ClassLoader {
+    private final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+    private final String name;
+
+    public TargetLoader(String name, byte[] classData) {
+      super(SyntheticTargets.class.getClassLoader());
+      this.name = name;
+      this.resources.put(name + ".class", classData);
+    }
+
+    public Class<?> define() {
+      byte[] classData = this.resources.get(this.name + ".class");
+      return this.defineClass(this.name.replace('/', '.'), classData, 0, classData.length);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+      byte[] classData = this.resources.get(name);
+      return classData != null ? new ByteArrayInputStream(classData) : super.getResourceAsStream(name);
+    }
+  }
+}
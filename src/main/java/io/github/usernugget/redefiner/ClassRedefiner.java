@@ -25,19 +25,24 @@ import io.github.usernugget.redefiner.changes.FieldChange;
 import io.github.usernugget.redefiner.changes.MethodChange;
 import io.github.usernugget.redefiner.handlers.Handler;
 import io.github.usernugget.redefiner.handlers.HandlerTypes;
+import io.github.usernugget.redefiner.handlers.HandlerTypes.HandlerDesc;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
+import io.github.usernugget.redefiner.handlers.RewritePass;
 import io.github.usernugget.redefiner.throwables.InitializationException;
 import io.github.usernugget.redefiner.util.JavaInternals;
 import io.github.usernugget.redefiner.util.asm.ClassField;
 import io.github.usernugget.redefiner.util.asm.ClassFile;
 import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import io.github.usernugget.redefiner.util.asm.io.ClassStructureCache;
+import io.github.usernugget.redefiner.util.asm.io.MappingCache;
+import io.github.usernugget.redefiner.util.asm.io.TransformCache;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.util.Comparator;
-import java.util.function.ToIntFunction;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -47,8 +52,12 @@ public class ClassRedefiner implements Closeable {
   private final AttachTypes attachTypes;
   private final HandlerTypes handlerTypes;
   private ClassSerializer classSerializer = new ClassSerializer(this);
+  private final MappingCache mappingCache = new MappingCache(this);
+  private ClassStructureCache structureCache = new ClassStructureCache(this);
 
   private AbstractAgent agent;
+  private Executor executor;
+  private TransformCache transformCache;
 
   public ClassRedefiner(AttachTypes attachTypes, HandlerTypes handlerTypes) {
     this.attachTypes = attachTypes;
@@ -65,18 +74,20 @@ public class ClassRedefiner implements Closeable {
 
   private void transformClass(Mapping mapping, ClassLoader classLoader, Class<?> klass)
       throws ClassNotFoundException {
+    this.transformClass(classLoader, this.findTarget(mapping, classLoader, klass), klass);
+  }
+
+  Class<?> findTarget(Mapping mapping, ClassLoader classLoader, Class<?> klass)
+      throws ClassNotFoundException {
     requireNonNull(mapping, "class '" + klass.getName() + "' should be annotated with @Mapping");
     requireNonNull(classLoader, "classLoader == null");
     requireNonNull(klass, "klass == null");
 
-    Class<?> target;
     if (!mapping.targetClassName().isEmpty()) {
-      target = Class.forName(mapping.targetClassName(), false, classLoader);
-    } else {
-      target = mapping.targetClass();
+      return Class.forName(mapping.targetClassName(), false, classLoader);
     }
 
-    this.transformClass(classLoader, target, klass);
+    return mapping.targetClass();
   }
 
   public void transformClass(Class<?> target, Class<?> mapping) {
@@ -88,100 +99,198 @@ public class ClassRedefiner implements Closeable {
     requireNonNull(mapping, "mapping == null");
 
     try {
-      ClassFile mappingClass = this.classSerializer.readClass(
-        mapping, ClassReader.SKIP_FRAMES
-      );
+      ClassFile mappingClass = this.mappingCache.readMapping(mapping);
 
-      this.agent.rewriteClass(target, (classData, targetLoader) -> {
-        ClassFile targetClass = this.classSerializer.readClass(
-          classData, ClassReader.SKIP_FRAMES
-        );
-
-        ClassChange classChange = new ClassChange(
-          this,
-          classLoader,
-          mapping, target,
-          mappingClass, targetClass
-        );
-
-        mappingClass.eachAnnotation(node ->
-          this.handlerTypes.eachHandler(node.desc, desc ->
-            desc.handler.handleClass(classChange))
-        );
-
-        mappingClass.methods.sort(Comparator.comparingInt(new ToIntFunction<MethodNode>() {
-          public int priority;
-
-          @Override
-          public int applyAsInt(MethodNode key) {
-            this.priority = 0;
-            ((ClassMethod) key).eachAnnotation(node -> {
-              ClassRedefiner.this.handlerTypes.eachHandler(
-                node.desc, desc -> this.priority += desc.priority
-              );
-            });
-
-            return this.priority;
-          }
-        }).reversed());
-
-        mappingClass.fields.sort(Comparator.comparingInt(new ToIntFunction<FieldNode>() {
-          public int priority;
-
-          @Override
-          public int applyAsInt(FieldNode key) {
-            this.priority = 0;
-            ((ClassField) key).eachAnnotation(node -> {
-              ClassRedefiner.this.handlerTypes.eachHandler(
-                node.desc, desc -> this.priority += desc.priority
-              );
-            });
-
-            return this.priority;
-          }
-        }).reversed());
-
-        for (MethodNode method : mappingClass.methods) {
-          ClassMethod mappingMethod = (ClassMethod) method;
-
-          mappingMethod.eachAnnotation(node ->
-            this.handlerTypes.eachHandler(node.desc, desc ->
-              desc.handler.handleMethod(new MethodChange(
-                this,
-                classLoader,
-                mapping, target,
-                mappingClass, targetClass,
-                mappingMethod, new ParsedAnnotation(node)
-              ))
-            )
-          );
+      this.agent.rewriteClass(target, (classData, targetLoader) -> this.applyMapping(
+        classLoader, target, mapping, mappingClass, classData, targetLoader
+      ));
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to apply mapping", e);
+    }
+  }
+
+  public boolean transformClassDeferred(Class<?> mapping) throws ClassNotFoundException {
+    return this.transformClassDeferred(mapping.getClassLoader(), mapping);
+  }
+
+  /**
+   * Applies the mapping when its target is defined, without a redefinition.
+   * Targets that are already loaded are transformed right away
+   * <p>
+   * Deferred targets can't be reverted, failures are reported to the
+   * uncaught exception handler of the thread loading the target.
+   *
+   * @return true if the mapping was deferred
+   */
+  public boolean transformClassDeferred(ClassLoader classLoader, Class<?> mapping)
+      throws ClassNotFoundException {
+    Mapping annotation = mapping.getAnnotation(Mapping.class);
+    requireNonNull(annotation, "class '" + mapping.getName() + "' should be annotated with @Mapping");
+
+    // Targets referenced by class are loaded already
+    String className = annotation.targetClassName();
+    if (className.isEmpty()) {
+      this.transformClass(classLoader, annotation.targetClass(), mapping);
+      return false;
+    }
+
+    ClassFile mappingClass;
+    try {
+      mappingClass = this.mappingCache.readMapping(mapping);
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to apply mapping", e);
+    }
+
+    if (this.agent.deferClass(
+      classLoader, className.replace('.', '/'),
+      (classData, targetLoader) -> this.applyMapping(
+        classLoader, null, mapping, mappingClass, classData, targetLoader
+      )
+    )) {
+      return true;
+    }
+
+    this.transformClass(classLoader, Class.forName(className, false, classLoader), mapping);
+    return false;
+  }
+
+  public void transformClasses(Collection<Class<?>> mappings) throws ClassNotFoundException {
+    RedefinitionBatch batch = this.newBatch();
+    for (Class<?> mapping : mappings) {
+      batch.add(mapping);
+    }
+
+    batch.apply();
+  }
+
+  public RedefinitionBatch newBatch() {
+    return new RedefinitionBatch(this);
+  }
+
+  byte[] applyMapping(
+    ClassLoader classLoader, Class<?> target, Class<?> mapping,
+    ClassFile mappingClass, byte[] classData, ClassLoader targetLoader
+  ) {
+    TransformCache transformCache = this.transformCache;
+    byte[] cacheKey = null;
+    if (transformCache != null) {
+      byte[] mappingDigest = this.mappingCache.getDigest(mapping);
+      if (mappingDigest != null) {
+        cacheKey = transformCache.createKey(classData, mappingDigest, this.handlerTypes);
+
+        byte[] cached = transformCache.get(cacheKey);
+        if (cached != null) {
+          return cached;
         }
+      }
+    }
+
+    // Frames are kept, so untouched methods don't need them recomputed
+    ClassFile targetClass = this.classSerializer.readClass(classData, 0);
+
+    ClassChange classChange = new ClassChange(
+      this,
+      classLoader,
+      mapping, target,
+      mappingClass, targetClass
+    );
+    classChange.setTargetClassLoader(targetLoader);
+
+    mappingClass.eachAnnotation(node ->
+      this.handlerTypes.eachHandler(node.desc, desc ->
+        desc.handler.handleClass(classChange))
+    );
+
+    // Mapping members are already sorted by priority, see MappingCache
+    for (MethodNode method : mappingClass.methods) {
+      ClassMethod mappingMethod = (ClassMethod) method;
+
+      mappingMethod.eachAnnotation(node ->
+        this.handleMethod(this.handlerTypes.getHandlers(node.desc), () -> {
+          MethodChange change = new MethodChange(
+            this,
+            classLoader,
+            mapping, target,
+            mappingClass, targetClass,
+            mappingMethod, new ParsedAnnotation(node)
+          );
+
+          change.setTargetClassLoader(targetLoader);
+          change.shareAttachments(classChange);
+          return change;
+        })
+      );
+    }
 
-        for (FieldNode field : mappingClass.fields) {
-          ClassField mappingField = (ClassField) field;
-
-          mappingField.eachAnnotation(node ->
-            this.handlerTypes.eachHandler(node.desc, desc ->
-              desc.handler.handleField(new FieldChange(
-                this,
-                classLoader,
-                mapping, target,
-                mappingClass, targetClass,
-                mappingField, new ParsedAnnotation(node)
-              ))
-            )
+    for (FieldNode field : mappingClass.fields) {
+      ClassField mappingField = (ClassField) field;
+
+      mappingField.eachAnnotation(node ->
+        this.handlerTypes.eachHandler(node.desc, desc -> {
+          FieldChange change = new FieldChange(
+            this,
+            classLoader,
+            mapping, target,
+            mappingClass, targetClass,
+            mappingField, new ParsedAnnotation(node)
           );
+
+          change.setTargetClassLoader(targetLoader);
+          change.shareAttachments(classChange);
+          desc.handler.handleField(change);
+        })
+      );
+    }
+
+    for (Handler handler : this.handlerTypes.getDistinctHandlers()) {
+      handler.finishClass(classChange);
+    }
+
+    // Unknown handlers may have edited any target method without marking it
+    if (this.handlerTypes.mayEditTargetsInPlace()) {
+      targetClass.markMethodsDirty();
+    }
+
+    byte[] transformed = this.classSerializer.writeClassIncremental(targetClass, targetLoader);
+    if (cacheKey != null && classChange.isCacheable()) {
+      transformCache.put(cacheKey, transformed);
+    }
+
+    return transformed;
+  }
+
+  // Consecutive instruction rewriters share a single pass over the mapping code
+  private void handleMethod(HandlerDesc[] handlers, Supplier<MethodChange> changes) {
+    int index = 0;
+    while (index < handlers.length) {
+      int end = index;
+      while (end < handlers.length && handlers[end].handler instanceof InstructionRewriter) {
+        end++;
+      }
+
+      if (end - index > 1) {
+        InstructionRewriter[] rewriters = new InstructionRewriter[end - index];
+        for (int offset = 0; offset < rewriters.length; offset++) {
+          rewriters[offset] = (InstructionRewriter) handlers[index + offset].handler;
         }
 
-        return this.classSerializer.writeClass(
-          targetClass, targetLoader, ClassWriter.COMPUTE_FRAMES
-        );
-      });
-    } catch (IOException e) {
-      throw new IllegalStateException("failed to apply mapping", e);
+        RewritePass.rewrite(changes.get(), rewriters);
+        index = end;
+      } else {
+        handlers[index++].handler.handleMethod(changes.get());
+      }
     }
   }
 
+  public boolean revert(Class<?> target) {
+    requireNonNull(target, "target == null");
+    return this.agent.revertClasses(target) != 0;
+  }
+
+  public int revertAll() {
+    return this.agent.revertAll();
+  }
+
   public void initializeAgent() throws InitializationException {
     if (this.agent != null) {
       throw new InitializationException("ClassRedefiner already initialized");
@@ -220,6 +329,49 @@ public class ClassRedefiner implements Closeable {
     return this;
   }
 
+  public MappingCache getMappingCache() {
+    return this.mappingCache;
+  }
+
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Executor used to rewrite independent targets of one redefinition in parallel,
+   * {@code null} rewrites them on the caller thread
+   */
+  public ClassRedefiner setExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  public TransformCache getTransformCache() {
+    return this.transformCache;
+  }
+
+  /**
+   * Persistent cache of transformed classes, {@code null} transforms every class from scratch.
+   * The cache is not closed together with the redefiner
+   */
+  public ClassRedefiner setTransformCache(TransformCache transformCache) {
+    this.transformCache = transformCache;
+    return this;
+  }
+
+  public ClassStructureCache getStructureCache() {
+    return this.structureCache;
+  }
+
+  /**
+   * Cache of class structures used to resolve members of other classes,
+   * holds {@link ClassStructureCache#DEFAULT_MAXIMUM_SIZE} classes by default
+   */
+  public ClassRedefiner setStructureCache(ClassStructureCache structureCache) {
+    this.structureCache = requireNonNull(structureCache, "structureCache == null");
+    return this;
+  }
+
   public AbstractAgent getAgent() {
     return this.agent;
   }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner;
+
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Collects mappings and applies all of them with a single class redefinition
+ * <p>
+ * Every target is rewritten first, then all targets are submitted to the agent
+ * at once, so the whole batch costs one safepoint and one deoptimization pass.
+ * Mappings for the same target are applied in the order they were added.
+ */
+public class RedefinitionBatch {
+  private static final class Entry {
+    private final ClassLoader classLoader;
+    private final Class<?> mapping;
+
+    public Entry(ClassLoader classLoader, Class<?> mapping) {
+      this.classLoader = classLoader;
+      this.mapping = mapping;
+    }
+  }
+
+  private final ClassRedefiner redefiner;
+  private final Map<Class<?>, List<Entry>> targets = new LinkedHashMap<>();
+
+  public RedefinitionBatch(ClassRedefiner redefiner) {
+    this.redefiner = requireNonNull(redefiner, "redefiner == null");
+  }
+
+  public RedefinitionBatch add(Class<?> mapping) throws ClassNotFoundException {
+    return this.add(mapping.getClassLoader(), mapping);
+  }
+
+  public RedefinitionBatch add(ClassLoader classLoader, Class<?> mapping) throws ClassNotFoundException {
+    return this.add(
+      classLoader,
+      this.redefiner.findTarget(mapping.getAnnotation(Mapping.class), classLoader, mapping),
+      mapping
+    );
+  }
+
+  public RedefinitionBatch add(Class<?> target, Class<?> mapping) {
+    return this.add(mapping.getClassLoader(), target, mapping);
+  }
+
+  public RedefinitionBatch add(ClassLoader classLoader, Class<?> target, Class<?> mapping) {
+    requireNonNull(target, "target == null");
+    requireNonNull(mapping, "mapping == null");
+
+    this.targets.computeIfAbsent(target, key -> new ArrayList<>(1))
+      .add(new Entry(classLoader, mapping));
+    return this;
+  }
+
+  public int size() {
+    return this.targets.size();
+  }
+
+  public boolean isEmpty() {
+    return this.targets.isEmpty();
+  }
+
+  public void apply() {
+    if (this.targets.isEmpty()) {
+      return;
+    }
+
+    List<Class<?>> mappings = new ArrayList<>();
+    for (List<Entry> entries : this.targets.values()) {
+      for (Entry entry : entries) {
+        mappings.add(entry.mapping);
+      }
+    }
+
+    // Uncached mappings are dumped with a single retransformation
+    ClassFile[] mappingClasses;
+    try {
+      mappingClasses = this.redefiner.getMappingCache().readMappings(
+        mappings.toArray(new Class<?>[0])
+      );
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to apply mappings", e);
+    }
+
+    Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers =
+      new LinkedHashMap<>(this.targets.size());
+
+    int offset = 0;
+    for (Map.Entry<Class<?>, List<Entry>> target : this.targets.entrySet()) {
+      List<Entry> entries = target.getValue();
+      modifiers.put(target.getKey(), this.createModifier(
+        target.getKey(), entries,
+        Arrays.copyOfRange(mappingClasses, offset, offset + entries.size())
+      ));
+      offset += entries.size();
+    }
+
+    this.redefiner.getAgent().rewriteClasses(modifiers);
+    this.targets.clear();
+  }
+
+  private BiFunction<byte[], ClassLoader, byte[]> createModifier(
+    Class<?> target, List<Entry> entries, ClassFile[] mappingClasses
+  ) {
+    return (classData, targetLoader) -> {
+      for (int i = 0; i < mappingClasses.length; i++) {
+        Entry entry = entries.get(i);
+        classData = this.redefiner.applyMapping(
+          entry.classLoader, target, entry.mapping,
+          mappingClasses[i], classData, targetLoader
+        );
+      }
+
+      return classData;
+    };
+  }
+}
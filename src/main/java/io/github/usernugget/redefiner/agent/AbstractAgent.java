@@ -17,6 +17,7 @@
 package io.github.usernugget.redefiner.agent;
 
 import java.io.Closeable;
+import java.util.Map;
 import java.util.function.BiFunction;
 
 public abstract class AbstractAgent implements Closeable {
@@ -37,7 +38,20 @@ public abstract class AbstractAgent implements Closeable {
 
   public abstract boolean isAccessible(Class<?> klass);
   public abstract void rewriteClass(Class<?> klass, BiFunction<byte[], ClassLoader, byte[]> modifier);
+  public abstract void rewriteClasses(Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers);
   public abstract byte[] dumpClass(Class<?> klass);
+  public abstract byte[][] dumpClasses(Class<?>... klasses);
+
+  /**
+   * Registers a modifier applied once, when the class is defined by the classloader or one of its parents
+   *
+   * @return false if the class is already loaded, the modifier is not registered then
+   */
+  public abstract boolean deferClass(
+    ClassLoader classLoader, String className, BiFunction<byte[], ClassLoader, byte[]> modifier
+  );
+  public abstract int revertClasses(Class<?>... klasses);
+  public abstract int revertAll();
   public abstract int getCapabilities();
 
   public boolean can(int option) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pristine class bytes captured before the first redefinition of a class
+ * <p>
+ * Classes are weakly referenced, so a snapshot never keeps its class or classloader alive.
+ * Bytes are stored deflated with a length prefix.
+ */
+public class ClassSnapshots {
+  private final Map<Class<?>, byte[]> snapshots = new WeakHashMap<>();
+
+  public boolean contains(Class<?> klass) {
+    synchronized (this.snapshots) {
+      return this.snapshots.containsKey(klass);
+    }
+  }
+
+  public boolean saveIfAbsent(Class<?> klass, byte[] classData) {
+    if (this.contains(klass)) {
+      return false;
+    }
+
+    byte[] compressed = compress(classData);
+    synchronized (this.snapshots) {
+      return this.snapshots.putIfAbsent(klass, compressed) == null;
+    }
+  }
+
+  public byte[] get(Class<?> klass) {
+    byte[] compressed;
+    synchronized (this.snapshots) {
+      compressed = this.snapshots.get(klass);
+    }
+
+    return compressed != null ? decompress(compressed) : null;
+  }
+
+  public boolean remove(Class<?> klass) {
+    synchronized (this.snapshots) {
+      return this.snapshots.remove(klass) != null;
+    }
+  }
+
+  public List<Class<?>> getClasses() {
+    synchronized (this.snapshots) {
+      return new ArrayList<>(this.snapshots.keySet());
+    }
+  }
+
+  public int size() {
+    synchronized (this.snapshots) {
+      return this.snapshots.size();
+    }
+  }
+
+  protected static byte[] compress(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream(4 + data.length / 2);
+      output.write(data.length >>> 24);
+      output.write(data.length >>> 16);
+      output.write(data.length >>> 8);
+      output.write(data.length);
+
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+
+      return output.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  protected static byte[] decompress(byte[] compressed) {
+    int length = (compressed[0] & 0xFF) << 24 |
+                 (compressed[1] & 0xFF) << 16 |
+                 (compressed[2] & 0xFF) << 8 |
+                 (compressed[3] & 0xFF);
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed, 4, compressed.length - 4);
+
+      byte[] data = new byte[length];
+      int offset = 0;
+      while (offset < length && !inflater.finished()) {
+        offset += inflater.inflate(data, offset, length - offset);
+      }
+
+      if (offset != length) {
+        throw new IllegalStateException("corrupted snapshot: " + offset + " != " + length);
+      }
+
+      return data;
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("corrupted snapshot", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
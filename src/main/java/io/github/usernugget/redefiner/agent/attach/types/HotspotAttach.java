@@ -20,23 +20,37 @@ import io.github.usernugget.redefiner.ClassRedefiner;
 import io.github.usernugget.redefiner.agent.AbstractAgent;
 import io.github.usernugget.redefiner.agent.attach.AbstractAttach;
 import io.github.usernugget.redefiner.agent.impl.InstrumentationAgent;
+import io.github.usernugget.redefiner.agent.impl.SharedTransformer;
 import io.github.usernugget.redefiner.throwables.InitializationException;
 import io.github.usernugget.redefiner.util.JavaInternals;
 import io.github.usernugget.redefiner.util.asm.ClassField;
 import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 
 public class HotspotAttach extends AbstractAttach {
+  // Fixed name, so every redefiner of the process, including ones from other copies
+  // of this library, shares one attached agent and one transformer. The suffix is the
+  // layout version of the agent class, bump it when its fields or their meaning change
+  protected static final String SHARED_AGENT_NAME = "io/github/usernugget/redefiner/SharedAgentV1";
+
+  private static final String TRANSFORMER_NAME = "java/lang/instrument/ClassFileTransformer";
+  private static final String TRANSFORM_DESC =
+    "(Ljava/lang/ClassLoader;Ljava/lang/String;Ljava/lang/Class;Ljava/security/ProtectionDomain;[B)[B";
+
   public boolean isSupported(ClassRedefiner redefiner) {
     try {
       Class.forName("sun.instrument.InstrumentationImpl");
@@ -48,28 +62,61 @@ public class HotspotAttach extends AbstractAttach {
 
   @Override
   public AbstractAgent createAgent(ClassRedefiner redefiner) throws InitializationException {
-    String className = Type.getInternalName(HotspotAttach.class) + "$Agent$" + Long.toString(System.nanoTime(), 36);
-    Class<?> agentClass = createAgentClass(redefiner, className);
+    Class<?> agentClass = this.findAgentClass(redefiner);
 
-    Field instrumentationField;
-    try {
-      instrumentationField = agentClass.getDeclaredField("I");
-    } catch (NoSuchFieldException e) {
-      throw new InitializationException("field 'I' not found", e);
+    Instrumentation instrumentation;
+    synchronized (getStatic(findField(agentClass, "L"))) {
+      Field instrumentationField = findField(agentClass, "I");
+      if (getStatic(instrumentationField) == null) {
+        attachAgent(SHARED_AGENT_NAME);
+      }
+
+      instrumentation = (Instrumentation) getStatic(instrumentationField);
+      if (instrumentation == null) {
+        throw new InitializationException("attachAgent is called, but instrumentation is null");
+      }
     }
 
-    attachAgent(className);
+    @SuppressWarnings("unchecked")
+    List<ClassFileTransformer> routes = (List<ClassFileTransformer>) getStatic(findField(agentClass, "R"));
+    return new InstrumentationAgent(instrumentation, redefiner, true, new SharedTransformer(
+      instrumentation, (ClassFileTransformer) getStatic(findField(agentClass, "T")),
+      routes, getStatic(findField(agentClass, "L"))
+    ));
+  }
 
-    Object instrumentation = JavaInternals.UNSAFE.getObject(
-       JavaInternals.UNSAFE.staticFieldBase(instrumentationField),
-       JavaInternals.UNSAFE.staticFieldOffset(instrumentationField)
-    );
+  // Every copy of this library defines the agent class under the same platform classloader lock
+  private Class<?> findAgentClass(ClassRedefiner redefiner) throws InitializationException {
+    ClassLoader platformLoader = ClassLoader.getPlatformClassLoader();
+    String name = SHARED_AGENT_NAME.replace('/', '.');
+
+    synchronized (JavaInternals.getClassLoadingLock(platformLoader, name)) {
+      if (JavaInternals.findLoadedClass(platformLoader, name) == null) {
+        this.createAgentClass(redefiner, SHARED_AGENT_NAME);
+      }
+    }
 
-    if (instrumentation == null) {
-      throw new InitializationException("attachAgent is called, but instrumentation is null");
+    // Fields are read with Unsafe, which doesn't run <clinit>
+    try {
+      return Class.forName(name, true, platformLoader);
+    } catch (ClassNotFoundException e) {
+      throw new InitializationException("agent class '" + name + "' not found", e);
     }
+  }
 
-    return new InstrumentationAgent((Instrumentation) instrumentation, redefiner);
+  private static Field findField(Class<?> agentClass, String name) throws InitializationException {
+    try {
+      return agentClass.getDeclaredField(name);
+    } catch (NoSuchFieldException e) {
+      throw new InitializationException("field '" + name + "' not found", e);
+    }
+  }
+
+  private static Object getStatic(Field field) {
+    return JavaInternals.UNSAFE.getObjectVolatile(
+       JavaInternals.UNSAFE.staticFieldBase(field),
+       JavaInternals.UNSAFE.staticFieldOffset(field)
+    );
   }
 
   protected void attachAgent(String className) throws InitializationException {
@@ -115,23 +162,143 @@ public class HotspotAttach extends AbstractAttach {
     }
   }
 
+  /*
+   * public class SharedAgent implements ClassFileTransformer {
+   *   public static volatile Instrumentation I;
+   *   public static final Object L = new Object();
+   *   public static final List<ClassFileTransformer> R = new CopyOnWriteArrayList<>();
+   *   public static final ClassFileTransformer T = new SharedAgent();
+   *
+   *   public static void agentmain(String args, Instrumentation instrumentation) {
+   *     I = instrumentation;
+   *   }
+   *
+   *   public byte[] transform(...) { passes the class through every route of R }
+   * }
+   *
+   * Only JDK types are exposed, so copies of this library loaded by other classloaders
+   * share one agent, one transformer and one lock without referencing each other.
+   * T is registered while R isn't empty, see SharedTransformer
+   */
   protected Class<?> createAgentClass(ClassRedefiner redefiner, String className) {
-    ClassFile classFile = new ClassFile(Opcodes.ACC_PUBLIC, className);
-    ClassField field = classFile.visitField(
-      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+    ClassFile classFile = new ClassFile(
+      Opcodes.ACC_PUBLIC, className, "java/lang/Object", TRANSFORMER_NAME
+    );
+
+    ClassField instrumentationField = classFile.visitField(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_VOLATILE,
       "I", "Ljava/lang/instrument/Instrumentation;"
     );
+    ClassField lockField = classFile.visitField(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+      "L", "Ljava/lang/Object;"
+    );
+    ClassField routesField = classFile.visitField(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+      "R", "Ljava/util/List;"
+    );
+    ClassField transformerField = classFile.visitField(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+      "T", "L" + TRANSFORMER_NAME + ";"
+    );
+
+    Insns insns = classFile.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V").getInstructions();
+    newInstance(insns, "java/lang/Object");
+    insns.fieldSetter(lockField);
+    newInstance(insns, "java/util/concurrent/CopyOnWriteArrayList");
+    insns.fieldSetter(routesField);
+    newInstance(insns, className);
+    insns.fieldSetter(transformerField);
+    insns.op(Opcodes.RETURN);
 
-    Insns insns = classFile.visitMethod(
+    insns = classFile.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V").getInstructions();
+    insns.varOp(Opcodes.ALOAD, 0);
+    insns.methodOp(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    insns.op(Opcodes.RETURN);
+
+    insns = classFile.visitMethod(
       Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
       "agentmain", "(Ljava/lang/String;Ljava/lang/instrument/Instrumentation;)V"
     ).getInstructions();
 
     insns.varOp(Opcodes.ALOAD, 1);
-    insns.fieldSetter(field);
+    insns.fieldSetter(instrumentationField);
     insns.op(Opcodes.RETURN);
 
+    createTransform(classFile, routesField);
+
     return redefiner.getClassSerializer()
       .defineClass(classFile, ClassLoader.getPlatformClassLoader());
   }
+
+  private static void newInstance(Insns insns, String type) {
+    insns.typeOp(Opcodes.NEW, type);
+    insns.op(Opcodes.DUP);
+    insns.methodOp(Opcodes.INVOKESPECIAL, type, "<init>", "()V", false);
+  }
+
+  // A failed route keeps the bytes it received, like a failed transformer
+  private static void createTransform(ClassFile classFile, ClassField routesField) {
+    ClassMethod transform = classFile.visitMethod(Opcodes.ACC_PUBLIC, "transform", TRANSFORM_DESC);
+    Insns insns = transform.getInstructions();
+
+    LabelNode loop = new LabelNode();
+    LabelNode routeStart = new LabelNode();
+    LabelNode routeEnd = new LabelNode();
+    LabelNode routeFailed = new LabelNode();
+    LabelNode end = new LabelNode();
+    LabelNode unchanged = new LabelNode();
+
+    // byte[] classData = classfileBuffer;
+    // Iterator iterator = R.iterator();
+    insns.varOp(Opcodes.ALOAD, 5);
+    insns.varOp(Opcodes.ASTORE, 6);
+    insns.fieldGetter(routesField);
+    insns.methodOp(Opcodes.INVOKEINTERFACE, "java/util/List", "iterator", "()Ljava/util/Iterator;", true);
+    insns.varOp(Opcodes.ASTORE, 7);
+
+    // while (iterator.hasNext()) {
+    insns.add(loop);
+    insns.varOp(Opcodes.ALOAD, 7);
+    insns.methodOp(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z", true);
+    insns.jumpOp(Opcodes.IFEQ, end);
+
+    //   byte[] result = ((ClassFileTransformer) iterator.next()).transform(..., classData);
+    insns.varOp(Opcodes.ALOAD, 7);
+    insns.methodOp(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "next", "()Ljava/lang/Object;", true);
+    insns.typeOp(Opcodes.CHECKCAST, TRANSFORMER_NAME);
+    for (int var = 1; var <= 4; var++) {
+      insns.varOp(Opcodes.ALOAD, var);
+    }
+    insns.varOp(Opcodes.ALOAD, 6);
+    insns.add(routeStart);
+    insns.methodOp(Opcodes.INVOKEINTERFACE, TRANSFORMER_NAME, "transform", TRANSFORM_DESC, true);
+    insns.add(routeEnd);
+    insns.varOp(Opcodes.ASTORE, 8);
+
+    //   if (result != null) classData = result;
+    insns.varOp(Opcodes.ALOAD, 8);
+    insns.jumpOp(Opcodes.IFNULL, loop);
+    insns.varOp(Opcodes.ALOAD, 8);
+    insns.varOp(Opcodes.ASTORE, 6);
+    insns.jumpOp(Opcodes.GOTO, loop);
+
+    // catch (Throwable ignored) }
+    insns.add(routeFailed);
+    insns.op(Opcodes.POP);
+    insns.jumpOp(Opcodes.GOTO, loop);
+
+    // return classData != classfileBuffer ? classData : null;
+    insns.add(end);
+    insns.varOp(Opcodes.ALOAD, 6);
+    insns.varOp(Opcodes.ALOAD, 5);
+    insns.jumpOp(Opcodes.IF_ACMPEQ, unchanged);
+    insns.varOp(Opcodes.ALOAD, 6);
+    insns.op(Opcodes.ARETURN);
+    insns.add(unchanged);
+    insns.op(Opcodes.ACONST_NULL);
+    insns.op(Opcodes.ARETURN);
+
+    transform.tryCatchBlocks.add(new TryCatchBlockNode(routeStart, routeEnd, routeFailed, "java/lang/Throwable"));
+  }
 }
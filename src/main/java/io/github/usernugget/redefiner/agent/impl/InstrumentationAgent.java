@@ -18,14 +18,24 @@ package io.github.usernugget.redefiner.agent.impl;
 
 import io.github.usernugget.redefiner.ClassRedefiner;
 import io.github.usernugget.redefiner.agent.AbstractAgent;
+import io.github.usernugget.redefiner.agent.ClassSnapshots;
 import io.github.usernugget.redefiner.throwables.InitializationException;
+import io.github.usernugget.redefiner.util.JavaInternals;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.security.ProtectionDomain;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import org.objectweb.asm.Type;
 import static java.util.Objects.requireNonNull;
@@ -34,15 +44,58 @@ public class InstrumentationAgent extends AbstractAgent implements ClassFileTran
   private final ClassRedefiner redefiner;
   private final Instrumentation instrumentation;
 
-  private static final class Transformation {
+  private static final class TransformationKey {
     private final ClassLoader classLoader;
     private final String className;
+    private final int hash;
+
+    public TransformationKey(ClassLoader classLoader, String className) {
+      this.classLoader = classLoader;
+      this.className = className;
+      // ClassLoader may override hashCode, so use its identity
+      this.hash = 31 * System.identityHashCode(classLoader) + className.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof TransformationKey)) return false;
+
+      TransformationKey key = (TransformationKey) o;
+      return this.classLoader == key.classLoader &&
+             this.className.equals(key.className);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  private static final class Transformation {
+    private final TransformationKey key;
     private final BiFunction<byte[], ClassLoader, byte[]> handler;
     private Throwable throwable;
 
     public Transformation(
       ClassLoader classLoader, String className,
       BiFunction<byte[], ClassLoader, byte[]> handler
+    ) {
+      requireNonNull(className, "className == null");
+      requireNonNull(handler, "handler == null");
+      this.key = new TransformationKey(classLoader, className);
+      this.handler = handler;
+    }
+  }
+
+  private static final class DeferredTransformation {
+    private final ClassLoader classLoader;
+    private final String className;
+    private final BiFunction<byte[], ClassLoader, byte[]> handler;
+
+    public DeferredTransformation(
+      ClassLoader classLoader, String className,
+      BiFunction<byte[], ClassLoader, byte[]> handler
     ) {
       requireNonNull(className, "className == null");
       requireNonNull(handler, "handler == null");
@@ -50,18 +103,107 @@ public class InstrumentationAgent extends AbstractAgent implements ClassFileTran
       this.className = className;
       this.handler = handler;
     }
+
+    // Classes are defined by the classloader itself or by one of its parents
+    public boolean matches(ClassLoader loader) {
+      if (loader == null) {
+        return true;
+      }
+
+      for (ClassLoader parent = this.classLoader; parent != null; parent = parent.getParent()) {
+        if (parent == loader) {
+          return true;
+        }
+      }
+
+      return false;
+    }
   }
 
-  private final Queue<Transformation> transformations = new LinkedList<>();
+  // Checked on every class load before touching the maps
+  private final AtomicInteger pendingTransformations = new AtomicInteger();
+  private final Map<TransformationKey, Transformation> transformations = new ConcurrentHashMap<>();
+  // Internal class name -> transformations waiting for the class to be defined
+  private final Map<String, List<DeferredTransformation>> deferredTransformations = new ConcurrentHashMap<>();
+  private final ClassSnapshots snapshots = new ClassSnapshots();
+
+  // Registered only while a retransformation is running, unless the transformer is persistent
+  private final boolean lazyTransformer;
+  private final Object transformerLock = new Object();
+  private int transformerUsers;
+  // Transformer shared by every agent of the process, null if this agent registers itself
+  private final SharedTransformer sharedTransformer;
 
   public InstrumentationAgent(Instrumentation instrumentation, ClassRedefiner redefiner) throws InitializationException {
+    this(instrumentation, redefiner, true);
+  }
+
+  public InstrumentationAgent(
+    Instrumentation instrumentation, ClassRedefiner redefiner, boolean lazyTransformer
+  ) throws InitializationException {
+    this(instrumentation, redefiner, lazyTransformer, null);
+  }
+
+  public InstrumentationAgent(
+    Instrumentation instrumentation, ClassRedefiner redefiner,
+    boolean lazyTransformer, SharedTransformer sharedTransformer
+  ) throws InitializationException {
     if (instrumentation == null) {
       throw new InitializationException("instrumentation is null");
     }
 
     this.redefiner = redefiner;
     this.instrumentation = instrumentation;
-    this.instrumentation.addTransformer(this, true);
+    this.lazyTransformer = lazyTransformer;
+    this.sharedTransformer = sharedTransformer;
+
+    if (!lazyTransformer) {
+      this.addTransformer();
+    }
+  }
+
+  private void addTransformer() {
+    if (this.sharedTransformer != null) {
+      this.sharedTransformer.addRoute(this);
+    } else {
+      this.instrumentation.addTransformer(this, true);
+    }
+  }
+
+  private void removeTransformer() {
+    if (this.sharedTransformer != null) {
+      this.sharedTransformer.removeRoute(this);
+    } else {
+      this.instrumentation.removeTransformer(this);
+    }
+  }
+
+  public Instrumentation getInstrumentation() {
+    return this.instrumentation;
+  }
+
+  public boolean isLazyTransformer() {
+    return this.lazyTransformer;
+  }
+
+  protected void acquireTransformer() {
+    if (this.lazyTransformer) {
+      synchronized (this.transformerLock) {
+        if (this.transformerUsers++ == 0) {
+          this.addTransformer();
+        }
+      }
+    }
+  }
+
+  protected void releaseTransformer() {
+    if (this.lazyTransformer) {
+      synchronized (this.transformerLock) {
+        if (--this.transformerUsers == 0) {
+          this.removeTransformer();
+        }
+      }
+    }
   }
 
   /*
@@ -74,85 +216,397 @@ public class InstrumentationAgent extends AbstractAgent implements ClassFileTran
   }
 
   public byte[] dumpClass(Class<?> klass) {
-    try {
-      byte[][] classData = new byte[1][];
-      retransform(klass, (classBytes, classLoader) -> {
-        classData[0] = classBytes;
+    return this.dumpClasses(klass)[0];
+  }
+
+  @Override
+  public byte[][] dumpClasses(Class<?>... klasses) {
+    // Retransform every unique class once, duplicates share the same buffer
+    Map<Class<?>, Integer> indexes = new IdentityHashMap<>(klasses.length);
+    List<Class<?>> uniqueClasses = new ArrayList<>(klasses.length);
+    for (Class<?> klass : klasses) {
+      if (indexes.putIfAbsent(klass, uniqueClasses.size()) == null) {
+        uniqueClasses.add(klass);
+      }
+    }
+
+    byte[][] uniqueData = new byte[uniqueClasses.size()][];
+    List<BiFunction<byte[], ClassLoader, byte[]>> modifiers = new ArrayList<>(uniqueClasses.size());
+    for (int i = 0; i < uniqueClasses.size(); i++) {
+      int index = i;
+      modifiers.add((classBytes, classLoader) -> {
+        uniqueData[index] = classBytes;
         return null;
       });
+    }
 
-      return classData[0];
+    try {
+      retransform(uniqueClasses.toArray(new Class<?>[0]), modifiers);
     } catch (Throwable throwable) {
       throw new IllegalStateException("failed to dump class", throwable);
     }
+
+    byte[][] classData = new byte[klasses.length][];
+    for (int i = 0; i < klasses.length; i++) {
+      classData[i] = uniqueData[indexes.get(klasses[i])];
+    }
+
+    return classData;
   }
 
   @Override
   public void rewriteClass(
     Class<?> klass, BiFunction<byte[], ClassLoader, byte[]> modifier
   ) {
-    byte[] data = modifier.apply(this.dumpClass(klass), klass.getClassLoader());
+    this.rewriteClasses(Collections.singletonMap(klass, modifier));
+  }
+
+  @Override
+  public void rewriteClasses(
+    Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers
+  ) {
+    Class<?>[] klasses = modifiers.keySet().toArray(new Class<?>[0]);
+    byte[][] classData = this.dumpClasses(klasses);
+
+    Executor executor = this.redefiner.getExecutor();
+    ClassDefinition[] definitions = executor == null || klasses.length == 1
+      ? this.rewriteSerial(klasses, classData, modifiers)
+      : this.rewriteParallel(klasses, classData, modifiers, executor);
+
+    this.redefineClasses(definitions);
+
+    for (int i = 0; i < klasses.length; i++) {
+      // Keep the pristine bytes of the first rewrite, so it can be reverted later.
+      // Saved only once the classes were redefined, a failed rewrite has nothing to revert
+      this.snapshots.saveIfAbsent(klasses[i], classData[i]);
+    }
+  }
+
+  private ClassDefinition[] rewriteSerial(
+    Class<?>[] klasses, byte[][] classData,
+    Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers
+  ) {
+    ClassDefinition[] definitions = new ClassDefinition[klasses.length];
+    for (int i = 0; i < klasses.length; i++) {
+      Class<?> klass = klasses[i];
+      definitions[i] = new ClassDefinition(
+        klass, modifiers.get(klass).apply(classData[i], klass.getClassLoader())
+      );
+    }
+
+    return definitions;
+  }
+
+  private ClassDefinition[] rewriteParallel(
+    Class<?>[] klasses, byte[][] classData,
+    Map<Class<?>, BiFunction<byte[], ClassLoader, byte[]>> modifiers,
+    Executor executor
+  ) {
+    List<CompletableFuture<ClassDefinition>> futures = new ArrayList<>(klasses.length);
+    for (int i = 0; i < klasses.length; i++) {
+      Class<?> klass = klasses[i];
+      BiFunction<byte[], ClassLoader, byte[]> modifier = modifiers.get(klass);
+      byte[] data = classData[i];
+
+      futures.add(CompletableFuture.supplyAsync(() -> new ClassDefinition(
+        klass, modifier.apply(data, klass.getClassLoader())
+      ), executor));
+    }
+
+    // Wait for every target, so a failure doesn't leave rewrites running in the background
+    RuntimeException failure = null;
+    ClassDefinition[] definitions = new ClassDefinition[klasses.length];
+    for (int i = 0; i < definitions.length; i++) {
+      try {
+        definitions[i] = futures.get(i).join();
+      } catch (CompletionException e) {
+        RuntimeException cause = e.getCause() instanceof RuntimeException
+          ? (RuntimeException) e.getCause()
+          : new IllegalStateException("failed to rewrite class " + klasses[i].getName(), e.getCause());
+
+        if (failure == null) {
+          failure = cause;
+        } else {
+          failure.addSuppressed(cause);
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+
+    return definitions;
+  }
+
+  @Override
+  public boolean deferClass(
+    ClassLoader classLoader, String className, BiFunction<byte[], ClassLoader, byte[]> modifier
+  ) {
+    DeferredTransformation transform = new DeferredTransformation(classLoader, className, modifier);
+    this.addDeferred(transform);
+
+    // The class could be loaded before the transformation was registered,
+    // or be in the middle of its definition, which passed this transformer already
+    if (isLoaded(classLoader, className) && this.removeDeferred(transform)) {
+      return false;
+    }
+
+    return true;
+  }
+
+  private static boolean isLoaded(ClassLoader classLoader, String className) {
+    String name = className.replace('/', '.');
+    for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+      // Loaders define classes under this lock, so a definition in progress is waited for
+      synchronized (JavaInternals.getClassLoadingLock(loader, name)) {
+        if (JavaInternals.findLoadedClass(loader, name) != null) {
+          return true;
+        }
+      }
+    }
+
+    return JavaInternals.findBootstrapClass(name) != null;
+  }
+
+  private void addDeferred(DeferredTransformation transform) {
+    this.acquireTransformer();
+    this.deferredTransformations.compute(transform.className, (key, transforms) -> {
+      if (transforms == null) {
+        transforms = new ArrayList<>(1);
+      }
+
+      transforms.add(transform);
+      return transforms;
+    });
+
+    this.pendingTransformations.incrementAndGet();
+  }
+
+  private boolean removeDeferred(DeferredTransformation transform) {
+    boolean[] removed = new boolean[1];
+    this.deferredTransformations.computeIfPresent(transform.className, (key, transforms) -> {
+      removed[0] = transforms.remove(transform);
+      return transforms.isEmpty() ? null : transforms;
+    });
+
+    if (removed[0]) {
+      this.pendingTransformations.decrementAndGet();
+      this.releaseTransformer();
+    }
+
+    return removed[0];
+  }
+
+  // Transformations of the defined class in registration order, each one is applied only once
+  private byte[] applyDeferred(ClassLoader loader, String className, byte[] classfileBuffer) {
+    if (this.deferredTransformations.isEmpty()) {
+      return null;
+    }
+
+    List<DeferredTransformation> matched = new ArrayList<>(1);
+    this.deferredTransformations.computeIfPresent(className, (key, transforms) -> {
+      transforms.removeIf(transform -> transform.matches(loader) && matched.add(transform));
+      return transforms.isEmpty() ? null : transforms;
+    });
+
+    byte[] classData = classfileBuffer;
+    for (DeferredTransformation transform : matched) {
+      this.pendingTransformations.decrementAndGet();
+      this.releaseTransformer();
+
+      try {
+        byte[] transformed = transform.handler.apply(classData, loader);
+        if (transformed != null) {
+          classData = transformed;
+        }
+      } catch (Throwable throwable) {
+        // Nobody waits for the result, the class is defined without this transformation
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, new IllegalStateException(
+          "failed to apply deferred transformation to " + className, throwable
+        ));
+      }
+    }
+
+    return classData != classfileBuffer ? classData : null;
+  }
+
+  @Override
+  public int revertClasses(Class<?>... klasses) {
+    List<ClassDefinition> definitions = new ArrayList<>(klasses.length);
+    for (Class<?> klass : klasses) {
+      byte[] classData = this.snapshots.get(klass);
+      if (classData != null) {
+        definitions.add(new ClassDefinition(klass, classData));
+      }
+    }
+
+    this.redefineClasses(definitions.toArray(new ClassDefinition[0]));
+
+    for (ClassDefinition definition : definitions) {
+      this.snapshots.remove(definition.getDefinitionClass());
+    }
+
+    return definitions.size();
+  }
+
+  @Override
+  public int revertAll() {
+    return this.revertClasses(this.snapshots.getClasses().toArray(new Class<?>[0]));
+  }
+
+  public ClassSnapshots getSnapshots() {
+    return this.snapshots;
+  }
+
+  protected void redefineClasses(ClassDefinition... definitions) {
+    if (definitions.length == 0) {
+      return;
+    }
+
     try {
       synchronized (this) {
-        this.instrumentation.redefineClasses(new ClassDefinition(klass, data));
+        this.instrumentation.redefineClasses(definitions);
       }
     } catch (UnmodifiableClassException e) {
-      throw throwable("tried to modify an unmodifiable class", null, e);
+      throw throwable("tried to modify an unmodifiable class", Collections.emptyList(), e);
     } catch (ClassFormatError e) {
-      String bytecode = this.redefiner.getClassSerializer().readClass(data, 0).toReadableBytecode();
-      throw throwable("verification failed due to bad class structure, bytecode:\n" + bytecode, null, e);
+      String bytecode = this.readableBytecode(definitions, e);
+      throw throwable("verification failed due to bad class structure, bytecode:\n" + bytecode, Collections.emptyList(), e);
     } catch (VerifyError error) {
-      String bytecode = this.redefiner.getClassSerializer().readClass(data, 0).toReadableBytecode();
+      String bytecode = this.readableBytecode(definitions, error);
 
       if (error.getMessage() == null) {
-        throw throwable("verification failed with unknown reason, bytecode:\n" + bytecode, null, error);
+        throw throwable("verification failed with unknown reason, bytecode:\n" + bytecode, Collections.emptyList(), error);
       } else {
-        throw throwable("verification failed, bytecode: \n" + bytecode, null, error);
+        throw throwable("verification failed, bytecode: \n" + bytecode, Collections.emptyList(), error);
       }
     } catch (Throwable throwable) {
-      throw throwable("failed to rewrite class", null, throwable);
+      throw throwable("failed to rewrite class", Collections.emptyList(), throwable);
+    }
+  }
+
+  // Print only classes mentioned by the error, a batch can contain hundreds of them
+  protected String readableBytecode(ClassDefinition[] definitions, Throwable error) {
+    StringBuilder bytecode = new StringBuilder();
+    for (ClassDefinition definition : definitions) {
+      String name = definition.getDefinitionClass().getName();
+      if (definitions.length == 1 || (error.getMessage() != null && (
+          error.getMessage().contains(name) ||
+          error.getMessage().contains(name.replace('.', '/'))))) {
+        bytecode.append(
+          this.redefiner.getClassSerializer()
+            .readClass(definition.getDefinitionClassFile(), 0)
+            .toReadableBytecode()
+        );
+      }
+    }
+
+    if (bytecode.length() == 0) {
+      for (ClassDefinition definition : definitions) {
+        bytecode.append(definition.getDefinitionClass().getName()).append('\n');
+      }
     }
+
+    return bytecode.toString();
   }
 
   public synchronized void retransform(
     Class<?> klass, BiFunction<byte[], ClassLoader, byte[]> modifier
   ) {
-    Transformation transform = new Transformation(
-      klass.getClassLoader(),
-      Type.getInternalName(klass),
-      modifier
-    );
+    this.retransform(new Class<?>[] { klass }, Collections.singletonList(modifier));
+  }
+
+  public synchronized void retransform(
+    Class<?>[] klasses, List<BiFunction<byte[], ClassLoader, byte[]>> modifiers
+  ) {
+    if (klasses.length != modifiers.size()) {
+      throw new IllegalArgumentException(
+        "klasses.length != modifiers.size(): " + klasses.length + " != " + modifiers.size()
+      );
+    }
 
+    List<Transformation> transforms = new ArrayList<>(klasses.length);
+    for (int i = 0; i < klasses.length; i++) {
+      transforms.add(new Transformation(
+        klasses[i].getClassLoader(),
+        Type.getInternalName(klasses[i]),
+        modifiers.get(i)
+      ));
+    }
+
+    this.acquireTransformer();
     try {
-      synchronized (this) {
-        this.transformations.add(transform);
-        this.instrumentation.retransformClasses(klass);
+      for (Transformation transform : transforms) {
+        this.addTransformation(transform);
       }
+
+      this.instrumentation.retransformClasses(klasses);
     } catch (UnmodifiableClassException e) {
-      throw throwable("tries to modify unmodifiable class", transform, e);
+      throw throwable("tries to modify unmodifiable class", transforms, e);
     } catch (VerifyError error) {
       if (error.getMessage() == null) {
-        throw throwable("verification failed with unknown reason", transform, error);
+        throw throwable("verification failed with unknown reason", transforms, error);
       }
 
-      throw throwable("verification failed", transform, error);
+      throw throwable("verification failed", transforms, error);
     } catch (Throwable throwable) {
-      throw throwable("failed to rewrite class", transform, throwable);
+      throw throwable("failed to rewrite class", transforms, throwable);
+    } finally {
+      // Don't leave unmatched transformations behind, they would catch a later class load
+      for (Transformation transform : transforms) {
+        this.removeTransformation(transform);
+      }
+
+      this.releaseTransformer();
     }
 
-    if (transform.throwable != null) {
-      throw new IllegalStateException(transform.throwable);
+    IllegalStateException stateException = null;
+    for (Transformation transform : transforms) {
+      if (transform.throwable != null) {
+        if (stateException == null) {
+          stateException = new IllegalStateException(transform.throwable);
+        } else {
+          stateException.addSuppressed(transform.throwable);
+        }
+      }
+    }
+
+    if (stateException != null) {
+      throw stateException;
+    }
+  }
+
+  private void addTransformation(Transformation transform) {
+    if (this.transformations.putIfAbsent(transform.key, transform) != null) {
+      throw new IllegalStateException(
+        "class " + transform.key.className + " is already being transformed"
+      );
+    }
+
+    this.pendingTransformations.incrementAndGet();
+  }
+
+  private boolean removeTransformation(Transformation transform) {
+    if (this.transformations.remove(transform.key, transform)) {
+      this.pendingTransformations.decrementAndGet();
+      return true;
     }
+
+    return false;
   }
 
   protected IllegalStateException throwable(
     String message,
-    Transformation transformation,
+    List<Transformation> transformations,
     Throwable throwable
   ) {
     IllegalStateException stateException = new IllegalStateException(message, throwable);
-    if (transformation != null && transformation.throwable != null) {
-      stateException.addSuppressed(transformation.throwable);
+    for (Transformation transformation : transformations) {
+      if (transformation.throwable != null) {
+        stateException.addSuppressed(transformation.throwable);
+      }
     }
 
     return stateException;
@@ -168,41 +622,34 @@ public class InstrumentationAgent extends AbstractAgent implements ClassFileTran
      ClassLoader loader, String className, Class<?> classBeingRedefined,
      ProtectionDomain protectionDomain, byte[] classfileBuffer
   ) {
-    if (this.transformations.isEmpty()) {
+    if (this.pendingTransformations.get() == 0 || className == null) {
       return null;
     }
 
-    Transformation transformation = null;
-
-    try {
-      synchronized (this.transformations) {
-        for (Transformation t : this.transformations) {
-          if (t.className.equals(className) &&
-              t.classLoader == loader) {
-            transformation = t;
-            this.transformations.remove(t);
-            break;
-          }
-        }
-      }
+    if (classBeingRedefined == null) {
+      return this.applyDeferred(loader, className, classfileBuffer);
+    }
 
-      if (transformation != null) {
-        return transformation.handler.apply(classfileBuffer, loader);
-      }
+    Transformation transformation = this.transformations.get(
+      new TransformationKey(loader, className)
+    );
 
+    if (transformation == null || !this.removeTransformation(transformation)) {
       return null;
+    }
+
+    try {
+      return transformation.handler.apply(classfileBuffer, loader);
     } catch (Throwable throwable) {
       // Instrumentation (aka JPLIS (aka JVMTI wrapper)) will clear this exception,
       // so use it later
-      if (transformation != null) {
-        transformation.throwable = throwable;
-      }
+      transformation.throwable = throwable;
       return null;
     }
   }
 
   @Override
   public void close() {
-    this.instrumentation.removeTransformer(this);
+    this.removeTransformer();
   }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.agent.impl;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.util.List;
+
+/**
+ * Transformer shared by every agent of the process, passes classes through its routes in order
+ * <p>
+ * It is registered in the instrumentation only while it has routes. The transformer, its routes
+ * and the lock are JDK types, so agents of other copies of this library can join.
+ */
+public final class SharedTransformer {
+  private final Instrumentation instrumentation;
+  private final ClassFileTransformer transformer;
+  private final List<ClassFileTransformer> routes;
+  private final Object lock;
+
+  public SharedTransformer(
+    Instrumentation instrumentation, ClassFileTransformer transformer,
+    List<ClassFileTransformer> routes, Object lock
+  ) {
+    this.instrumentation = instrumentation;
+    this.transformer = transformer;
+    this.routes = routes;
+    this.lock = lock;
+  }
+
+  public void addRoute(ClassFileTransformer route) {
+    synchronized (this.lock) {
+      if (this.routes.isEmpty()) {
+        this.instrumentation.addTransformer(this.transformer, true);
+      }
+
+      this.routes.add(route);
+    }
+  }
+
+  public boolean removeRoute(ClassFileTransformer route) {
+    synchronized (this.lock) {
+      if (!this.routes.remove(route)) {
+        return false;
+      }
+
+      if (this.routes.isEmpty()) {
+        this.instrumentation.removeTransformer(this.transformer);
+      }
+
+      return true;
+    }
+  }
+}
@@ -18,18 +18,28 @@ package io.github.usernugget.redefiner.changes;
 
 import io.github.usernugget.redefiner.ClassRedefiner;
 import io.github.usernugget.redefiner.util.asm.ClassFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
 public class ClassChange {
+  private static final Object NOT_CACHEABLE = new Object();
+
   private ClassRedefiner redefiner;
 
   private ClassLoader classLoader;
 
   private Class<?> mappingJavaClass;
+  // Null if the target is transformed while it's being defined
   private Class<?> targetJavaClass;
+  private ClassLoader targetClassLoader;
 
   private ClassFile mappingClass;
   private ClassFile targetClass;
 
+  // Handler state of a single transform, shared with changes of its members
+  private Map<Object, Object> attachments = new HashMap<>();
+
   public ClassChange(
     ClassRedefiner redefiner, ClassLoader classLoader, Class<?> mappingJavaClass,
     Class<?> targetJavaClass, ClassFile mappingClass, ClassFile targetClass
@@ -38,10 +48,48 @@ public class ClassChange {
     this.classLoader = classLoader;
     this.mappingJavaClass = mappingJavaClass;
     this.targetJavaClass = targetJavaClass;
+    this.targetClassLoader = targetJavaClass != null ? targetJavaClass.getClassLoader() : null;
     this.mappingClass = mappingClass;
     this.targetClass = targetClass;
   }
 
+  @SuppressWarnings("unchecked")
+  public <T> T getAttachment(Object key, Supplier<T> factory) {
+    synchronized (this.attachments) {
+      return (T) this.attachments.computeIfAbsent(key, ignored -> factory.get());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T removeAttachment(Object key) {
+    synchronized (this.attachments) {
+      return (T) this.attachments.remove(key);
+    }
+  }
+
+  /**
+   * Makes this change share handler state with the change of its class
+   */
+  public void shareAttachments(ClassChange change) {
+    this.attachments = change.attachments;
+  }
+
+  /**
+   * Keeps the result of this transform out of the TransformCache,
+   * for changes that depend on the running JVM, like references to generated classes
+   */
+  public void markNotCacheable() {
+    synchronized (this.attachments) {
+      this.attachments.put(NOT_CACHEABLE, Boolean.TRUE);
+    }
+  }
+
+  public boolean isCacheable() {
+    synchronized (this.attachments) {
+      return !this.attachments.containsKey(NOT_CACHEABLE);
+    }
+  }
+
   public ClassRedefiner getRedefiner() {
     return this.redefiner;
   }
@@ -74,6 +122,14 @@ public class ClassChange {
     this.targetJavaClass = targetJavaClass;
   }
 
+  public ClassLoader getTargetClassLoader() {
+    return this.targetClassLoader;
+  }
+
+  public void setTargetClassLoader(ClassLoader targetClassLoader) {
+    this.targetClassLoader = targetClassLoader;
+  }
+
   public ClassFile getMappingClass() {
     return this.mappingClass;
   }
@@ -39,17 +39,23 @@ public class MethodChange extends ClassChange {
   }
 
   public ClassMethod findTargetMethod() {
+    ClassMethod target;
     if (this.annotation.get("method") == null) {
       ClassMethod mapping = this.getMappingMethod();
-      ClassMethod target = this.getTargetClass().findMethod(mapping.name, mapping.desc);
+      target = this.getTargetClass().findMethod(mapping.name, mapping.desc);
       if (target == null) {
         target = this.getTargetClass().findMethod(mapping.name, null);
       }
+    } else {
+      target = this.getTargetClass().findMethod(this.annotation.getMethod("method"));
+    }
 
-      return target;
+    // Handlers may change instructions in place, so frames of the target are recomputed
+    if (target != null) {
+      target.markDirty();
     }
 
-    return this.getTargetClass().findMethod(this.annotation.getMethod("method"));
+    return target;
   }
 
   public ClassField findTargetField(String fieldName) {
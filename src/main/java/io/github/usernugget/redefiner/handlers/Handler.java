@@ -26,4 +26,19 @@ public interface Handler {
   default void handleMethod(MethodChange change) { }
   default void handleField(FieldChange change) { }
   default void handleParameter(ParameterChange change) { }
+
+  // Called once all members of the mapping were handled
+  default void finishClass(ClassChange change) { }
+
+  /**
+   * Whether the handler can edit instructions of target methods in place, like operands of
+   * instructions in a method found through {@code getTargetClass().findMethod(...)}
+   * <p>
+   * Frames are copied for target methods that weren't returned by
+   * {@link MethodChange#findTargetMethod()} and whose {@code Insns} weren't modified.
+   * While a handler that returns true is registered, frames of every target method are recomputed.
+   */
+  default boolean mayEditTargetsInPlace() {
+    return true;
+  }
 }
@@ -18,10 +18,26 @@ package io.github.usernugget.redefiner.handlers;
 
 import io.github.usernugget.redefiner.handlers.HandlerTypes.HandlerDesc;
 import io.github.usernugget.redefiner.util.collections.SortedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
 
 public class HandlerTypes extends SortedList<HandlerDesc> {
+  public static final String WILDCARD = "*";
+
+  // Descriptor -> handlers in priority order, wildcard handlers merged in. Rebuilt after add/remove
+  private volatile DispatchTable dispatchTable;
+  private volatile int version;
+
   public boolean add(int priority, Type type, Handler handler) {
     return this.add(priority, type.getDescriptor(), handler);
   }
@@ -33,11 +49,154 @@ public class HandlerTypes extends SortedList<HandlerDesc> {
     return this.add(priority, new HandlerDesc(priority, handler, desc));
   }
 
+  @Override
+  public synchronized boolean add(int priority, HandlerDesc value) {
+    boolean added = super.add(priority, value);
+    if (added) {
+      this.dispatchTable = null;
+      this.version++;
+    }
+
+    return added;
+  }
+
+  @Override
+  public synchronized boolean remove(int priority, HandlerDesc value) {
+    boolean removed = super.remove(priority, value);
+    if (removed) {
+      this.dispatchTable = null;
+      this.version++;
+    }
+
+    return removed;
+  }
+
+  /**
+   * Incremented on every modification, used to invalidate data derived from handlers
+   */
+  public int getVersion() {
+    return this.version;
+  }
+
+  public int getPriority(AnnotationNode annotation) {
+    int priority = 0;
+    for (HandlerDesc handlerDesc : this.getHandlers(annotation.desc)) {
+      priority += handlerDesc.priority;
+    }
+
+    return priority;
+  }
+
   public void eachHandler(String desc, Consumer<HandlerDesc> consumer) {
-    for (HandlerDesc handlerDesc : getValues().values()) {
-      if (handlerDesc.desc.equals(desc) || handlerDesc.desc.equals("*")) {
-        consumer.accept(handlerDesc);
+    for (HandlerDesc handlerDesc : this.getHandlers(desc)) {
+      consumer.accept(handlerDesc);
+    }
+  }
+
+  /**
+   * Handlers for an annotation descriptor in priority order, including wildcard handlers
+   * <p>
+   * The returned array is shared and must not be modified.
+   */
+  public HandlerDesc[] getHandlers(String desc) {
+    DispatchTable table = this.getDispatchTable();
+
+    HandlerDesc[] handlers = table.handlers.get(desc);
+    return handlers != null ? handlers : table.wildcards;
+  }
+
+  /**
+   * Snapshot of handlers by priority, changes go through add/remove only
+   */
+  @Override
+  public Map<Integer, HandlerDesc> getValues() {
+    return this.getDispatchTable().values;
+  }
+
+  /**
+   * Every registered handler once, in priority order
+   * <p>
+   * The returned array is shared and must not be modified.
+   */
+  public Handler[] getDistinctHandlers() {
+    return this.getDispatchTable().distinctHandlers;
+  }
+
+  /**
+   * Whether any registered handler may edit target methods in place
+   *
+   * @see Handler#mayEditTargetsInPlace()
+   */
+  public boolean mayEditTargetsInPlace() {
+    return this.getDispatchTable().editsTargetsInPlace;
+  }
+
+  private DispatchTable getDispatchTable() {
+    DispatchTable table = this.dispatchTable;
+    return table != null ? table : this.buildDispatchTable();
+  }
+
+  private synchronized DispatchTable buildDispatchTable() {
+    DispatchTable table = this.dispatchTable;
+    if (table != null) {
+      return table;
+    }
+
+    Map<Integer, HandlerDesc> values = Collections.unmodifiableMap(new LinkedHashMap<>(super.getValues()));
+
+    Set<String> descs = new LinkedHashSet<>();
+    List<HandlerDesc> wildcards = new ArrayList<>();
+    Set<Handler> distinctHandlers = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<Handler> handlerOrder = new ArrayList<>();
+    boolean editsTargetsInPlace = false;
+    for (HandlerDesc handlerDesc : values.values()) {
+      if (distinctHandlers.add(handlerDesc.handler)) {
+        handlerOrder.add(handlerDesc.handler);
+        editsTargetsInPlace |= handlerDesc.handler.mayEditTargetsInPlace();
       }
+
+      if (handlerDesc.desc.equals(WILDCARD)) {
+        wildcards.add(handlerDesc);
+      } else {
+        descs.add(handlerDesc.desc);
+      }
+    }
+
+    Map<String, HandlerDesc[]> handlers = new HashMap<>();
+    for (String desc : descs) {
+      List<HandlerDesc> merged = new ArrayList<>();
+      for (HandlerDesc handlerDesc : values.values()) {
+        if (handlerDesc.desc.equals(desc) || handlerDesc.desc.equals(WILDCARD)) {
+          merged.add(handlerDesc);
+        }
+      }
+
+      handlers.put(desc, merged.toArray(new HandlerDesc[0]));
+    }
+
+    this.dispatchTable = table = new DispatchTable(
+      values, handlers, wildcards.toArray(new HandlerDesc[0]), handlerOrder.toArray(new Handler[0]),
+      editsTargetsInPlace
+    );
+    return table;
+  }
+
+  private static final class DispatchTable {
+    private final Map<Integer, HandlerDesc> values;
+    private final Map<String, HandlerDesc[]> handlers;
+    private final HandlerDesc[] wildcards;
+    private final Handler[] distinctHandlers;
+    private final boolean editsTargetsInPlace;
+
+    public DispatchTable(
+      Map<Integer, HandlerDesc> values, Map<String, HandlerDesc[]> handlers,
+      HandlerDesc[] wildcards, Handler[] distinctHandlers, boolean editsTargetsInPlace
+    ) {
+      this.values = values;
+      this.handlers = handlers;
+      this.wildcards = wildcards;
+      this.distinctHandlers = distinctHandlers;
+      this.editsTargetsInPlace = editsTargetsInPlace;
     }
   }
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.handlers;
+
+import io.github.usernugget.redefiner.changes.MethodChange;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+/**
+ * Handler which rewrites mapping instructions one by one
+ * <p>
+ * Consecutive rewriters of a method are fused by {@link RewritePass},
+ * so the mapping code is walked once no matter how many of them are registered.
+ */
+public interface InstructionRewriter extends Handler {
+  /**
+   * Instruction types handled by this rewriter, as a mask of {@code 1 << AbstractInsnNode#getType()}
+   */
+  int getInstructionTypes();
+
+  /**
+   * Prepares rewriting of a single mapping method, null if there is nothing to rewrite
+   */
+  Rewrite beginMethod(MethodChange change);
+
+  @Override
+  default void handleMethod(MethodChange change) {
+    RewritePass.rewrite(change, this);
+  }
+
+  static int mask(int... types) {
+    int mask = 0;
+    for (int type : types) {
+      mask |= 1 << type;
+    }
+
+    return mask;
+  }
+
+  interface Rewrite {
+    /**
+     * Rewrites an instruction and returns the node which took its place,
+     * the last one if it was replaced by several. The pass continues after the returned node,
+     * inserted nodes before it are not seen by any rewriter of the pass.
+     */
+    AbstractInsnNode rewrite(Insns code, AbstractInsnNode instruction);
+
+    /**
+     * Called after all instructions of the method were visited
+     */
+    default void finish() { }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.handlers;
+
+import io.github.usernugget.redefiner.changes.MethodChange;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter.Rewrite;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import java.util.Arrays;
+import org.objectweb.asm.tree.AbstractInsnNode;
+
+/**
+ * Applies several instruction rewriters with a single walk over the mapping code
+ * <p>
+ * Instructions are dispatched by type through a table and each one is passed to the
+ * rewriters in priority order. This is not the same as running separate passes:
+ * <ul>
+ *   <li>only the node returned by a rewriter is passed on to later rewriters, nodes it
+ *   inserted before that node are skipped by the whole pass (like the conversions
+ *   inserted by {@code OpHandler} in front of the final instruction)</li>
+ *   <li>every {@link InstructionRewriter#beginMethod} runs before the walk, so its side
+ *   effects precede all rewrites (like {@code TailHandler} rewriting target returns and
+ *   shifting mapping locals)</li>
+ * </ul>
+ * Rewriters that must see each other's inserted code need separate passes.
+ */
+public final class RewritePass {
+  private static final int TYPES = AbstractInsnNode.LINE + 1;
+
+  private final Rewrite[] rewrites;
+  private final int[] masks;
+  private final int[][] byType = new int[TYPES][];
+  private int mask;
+
+  private RewritePass(Rewrite[] rewrites, int[] masks) {
+    this.rewrites = rewrites;
+    this.masks = masks;
+
+    int[] counts = new int[TYPES];
+    for (int index = 0; index < rewrites.length; index++) {
+      this.mask |= masks[index];
+      for (int type = 0; type < TYPES; type++) {
+        if ((masks[index] & 1 << type) != 0) counts[type]++;
+      }
+    }
+
+    for (int type = 0; type < TYPES; type++) {
+      int[] chain = new int[counts[type]];
+      int offset = 0;
+      for (int index = 0; index < rewrites.length; index++) {
+        if ((masks[index] & 1 << type) != 0) chain[offset++] = index;
+      }
+
+      this.byType[type] = chain;
+    }
+  }
+
+  public static void rewrite(MethodChange change, InstructionRewriter... rewriters) {
+    Rewrite[] rewrites = new Rewrite[rewriters.length];
+    int[] masks = new int[rewriters.length];
+
+    int count = 0;
+    for (InstructionRewriter rewriter : rewriters) {
+      Rewrite rewrite = rewriter.beginMethod(change);
+      if (rewrite != null) {
+        rewrites[count] = rewrite;
+        masks[count++] = rewriter.getInstructionTypes();
+      }
+    }
+
+    if (count == 0) {
+      return;
+    }
+
+    RewritePass pass = new RewritePass(
+      count == rewrites.length ? rewrites : Arrays.copyOf(rewrites, count),
+      count == masks.length ? masks : Arrays.copyOf(masks, count)
+    );
+
+    pass.walk(change.getMappingMethod().getInstructions());
+    for (Rewrite rewrite : pass.rewrites) {
+      rewrite.finish();
+    }
+  }
+
+  private void walk(Insns code) {
+    AbstractInsnNode instruction = code.getFirst();
+    while (instruction != null) {
+      int type = instruction.getType();
+      if ((this.mask & 1 << type) != 0) {
+        instruction = this.rewrite(code, instruction, type);
+      }
+
+      instruction = instruction.getNext();
+    }
+  }
+
+  private AbstractInsnNode rewrite(Insns code, AbstractInsnNode instruction, int type) {
+    int[] chain = this.byType[type];
+    for (int index : chain) {
+      instruction = this.rewrites[index].rewrite(code, instruction);
+      if (instruction.getType() != type) {
+        // Replaced with another type of instruction, the rest is matched by mask
+        for (int next = index + 1; next < this.rewrites.length; next++) {
+          if ((this.masks[next] & 1 << instruction.getType()) != 0) {
+            instruction = this.rewrites[next].rewrite(code, instruction);
+          }
+        }
+
+        break;
+      }
+    }
+
+    return instruction;
+  }
+}
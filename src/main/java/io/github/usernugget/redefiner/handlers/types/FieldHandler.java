@@ -22,14 +22,13 @@ import io.github.usernugget.redefiner.util.Checks;
 import io.github.usernugget.redefiner.util.asm.ClassField;
 import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.Ops;
+import io.github.usernugget.redefiner.util.asm.instruction.InsnTemplate;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
-import org.objectweb.asm.Opcodes;
+import java.util.function.IntUnaryOperator;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
-import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.LabelNode;
-import org.objectweb.asm.tree.VarInsnNode;
 
 public abstract class FieldHandler implements Handler {
   public abstract boolean instructionMatches(AbstractInsnNode instruction);
@@ -62,6 +61,9 @@ public abstract class FieldHandler implements Handler {
     // Check if mapping has both return and argument same as the field
     Checks.checkFieldFormat(mapping, Type.getType(field.desc));
 
+    // Mapping is cloned for every match, so it is prepared once
+    InsnTemplate template = new InsnTemplate(mapping);
+
     // Inject wrapper to specified setfield
     Insns targetCode = target.getInstructions();
     for (AbstractInsnNode node : targetCode) {
@@ -71,7 +73,7 @@ public abstract class FieldHandler implements Handler {
             fieldNode.name.equals(field.name) &&
             fieldNode.desc.equals(field.desc)) {
           if (offset == -1 || offset-- == 2) {
-            this.insertWrapper(fieldNode, target, mapping.copy());
+            this.insertWrapper(fieldNode, target, template);
 
             if (offset == 0) {
               break;
@@ -85,40 +87,34 @@ public abstract class FieldHandler implements Handler {
   private void insertWrapper(
     FieldInsnNode fieldNode,
     ClassMethod target,
-    ClassMethod mapping
+    InsnTemplate mapping
   ) {
     LabelNode exitNode = new LabelNode();
 
-    mapping.increaseVariableIndex(target.maxVariable());
-    int wrapperArg = target.newVariable(mapping);
+    // Mapping locals are moved after target locals
+    int targetSize = target.maxVariable();
+    int descSize = mapping.getMethod().descSize();
+    IntUnaryOperator shift = var -> var > descSize ? var + targetSize : var;
+
+    int wrapperArg = Math.max(targetSize, mapping.maxVariable(shift)) + 1;
+
+    // Replace first argument with wrapper argument, returns with jumps to the end of the method
+    int firstArg = mapping.getMethod().isStatic() ? 0 : 1;
+    ClassMethod instance = mapping.instantiate(
+      var -> var == firstArg ? wrapperArg : shift.applyAsInt(var),
+      exitNode
+    );
 
     Type fieldDesc = Type.getType(fieldNode.desc);
-    Insns wrapper = mapping.getInstructions();
+    Insns wrapper = instance.getInstructions();
     wrapper.insert(Ops.storeOp(fieldDesc, wrapperArg));
     wrapper.add(exitNode);
 
-    int firstArg = mapping.isStatic() ? 0 : 1;
-    for (AbstractInsnNode node : wrapper) {
-      // Replace first argument with wrapper argument
-      if (node instanceof VarInsnNode) {
-        VarInsnNode var = (VarInsnNode) node;
-        if (var.var == firstArg) {
-          var.var = wrapperArg;
-        }
-      } else if (node instanceof IincInsnNode) {
-        IincInsnNode iinc = (IincInsnNode) node;
-        if (iinc.var == firstArg) {
-          iinc.var = wrapperArg;
-        }
-      }
-
-      // Replace returns with jumps
-      if (node.getOpcode() >= Opcodes.IRETURN &&
-          node.getOpcode() <= Opcodes.RETURN) {
-        wrapper.set(node, Ops.jumpOp(Opcodes.GOTO, exitNode)); // jump to the end of the method
-      }
-    }
+    this.insertCode(target, instance, fieldNode, wrapper);
+  }
 
-    this.insertCode(target, mapping, fieldNode, wrapper);
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
   }
 }
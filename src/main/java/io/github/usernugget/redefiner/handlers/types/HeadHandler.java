@@ -17,7 +17,7 @@
 package io.github.usernugget.redefiner.handlers.types;
 
 import io.github.usernugget.redefiner.changes.MethodChange;
-import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
 import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.Ops;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
@@ -26,41 +26,65 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 
-public class HeadHandler implements Handler {
+public class HeadHandler implements InstructionRewriter {
+  private static final int TYPES = InstructionRewriter.mask(AbstractInsnNode.INSN);
+
+  @Override
+  public int getInstructionTypes() {
+    return TYPES;
+  }
+
   @Override
-  public void handleMethod(MethodChange change) {
+  public Rewrite beginMethod(MethodChange change) {
     ClassMethod mapping = change.getMappingMethod();
     ClassMethod target = change.findTargetMethod();
 
     LabelNode targetBase = new LabelNode();
 
-    Insns mappingCode = mapping.getInstructions();
-    for (AbstractInsnNode instruction : mappingCode) {
-      int opcode = instruction.getOpcode();
-      if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN && !(instruction instanceof Injected)) {
-        if (opcode == Opcodes.RETURN) {
-          mappingCode.set(instruction, Ops.jumpOp(Opcodes.GOTO, targetBase));
-        } else {
-          Insns injection = new Insns();
-          if (opcode == Opcodes.DRETURN || opcode == Opcodes.LRETURN) {
-            injection.op(Opcodes.POP2);
+    return new Rewrite() {
+      @Override
+      public AbstractInsnNode rewrite(Insns mappingCode, AbstractInsnNode instruction) {
+        int opcode = instruction.getOpcode();
+        if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN && !(instruction instanceof Injected)) {
+          if (opcode == Opcodes.RETURN) {
+            AbstractInsnNode jump = Ops.jumpOp(Opcodes.GOTO, targetBase);
+            mappingCode.set(instruction, jump);
+            return jump;
           } else {
-            injection.op(Opcodes.POP);
-          }
+            Insns injection = new Insns();
+            if (opcode == Opcodes.DRETURN || opcode == Opcodes.LRETURN) {
+              injection.op(Opcodes.POP2);
+            } else {
+              injection.op(Opcodes.POP);
+            }
 
-          injection.jumpOp(Opcodes.GOTO, targetBase);
+            AbstractInsnNode jump = injection.jumpOp(Opcodes.GOTO, targetBase);
 
-          mappingCode.insert(instruction, injection);
-          mappingCode.remove(instruction);
+            mappingCode.insert(instruction, injection);
+            mappingCode.remove(instruction);
+            return jump;
+          }
         }
+
+        return instruction;
       }
-    }
 
-    mapping.increaseVariableIndex(target.maxVariable());
+      @Override
+      public void finish() {
+        Insns mappingCode = mapping.getInstructions();
+
+        mapping.increaseVariableIndex(target.maxVariable());
+
+        mappingCode.add(targetBase);
+        target.getInstructions().insert(mappingCode);
 
-    mappingCode.add(targetBase);
-    target.getInstructions().insert(mappingCode);
+        target.addTryCatchBlocks(mapping.tryCatchBlocks);
+      }
+    };
+  }
 
-    target.addTryCatchBlocks(mapping.tryCatchBlocks);
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
   }
 }
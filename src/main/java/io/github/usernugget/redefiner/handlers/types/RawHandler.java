@@ -57,7 +57,18 @@ public class RawHandler implements Handler {
         } catch (IllegalAccessException | InvocationTargetException e) {
           throw new IllegalStateException(e);
         }
+
+        // Raw code can edit any instruction in place, so no frame can be copied,
+        // and its output can depend on anything besides the mapping bytes
+        change.getTargetClass().markMethodsDirty();
+        change.markNotCacheable();
       }
     }
   }
+
+  // Targets are marked dirty after the raw code ran
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
+  }
 }
@@ -30,4 +30,9 @@ public class ReplaceHandler implements Handler {
     target.localVariables = mapping.localVariables;
     target.tryCatchBlocks = mapping.tryCatchBlocks;
   }
+
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
+  }
 }
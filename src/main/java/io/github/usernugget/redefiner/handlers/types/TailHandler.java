@@ -17,7 +17,7 @@
 package io.github.usernugget.redefiner.handlers.types;
 
 import io.github.usernugget.redefiner.changes.MethodChange;
-import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
 import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import io.github.usernugget.redefiner.util.asm.instruction.immutable.Injected;
@@ -26,9 +26,16 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 
-public class TailHandler implements Handler {
+public class TailHandler implements InstructionRewriter {
+  private static final int TYPES = InstructionRewriter.mask(AbstractInsnNode.INSN);
+
+  @Override
+  public int getInstructionTypes() {
+    return TYPES;
+  }
+
   @Override
-  public void handleMethod(MethodChange change) {
+  public Rewrite beginMethod(MethodChange change) {
     ClassMethod mapping = change.getMappingMethod();
     ClassMethod target = change.findTargetMethod();
 
@@ -56,24 +63,37 @@ public class TailHandler implements Handler {
 
     mapping.increaseVariableIndex(target.maxVariable());
 
-    Insns mappingCode = mapping.getInstructions();
-    for (AbstractInsnNode instruction : mappingCode) {
-      int opcode = instruction.getOpcode();
-      if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN && !(instruction instanceof Injected)) {
-        Insns exit = new Insns();
-        if (returnType.getSort() != Type.VOID) {
-          exit.loadOp(returnType, returnVariable);
+    return new Rewrite() {
+      @Override
+      public AbstractInsnNode rewrite(Insns mappingCode, AbstractInsnNode instruction) {
+        int opcode = instruction.getOpcode();
+        if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN && !(instruction instanceof Injected)) {
+          Insns exit = new Insns();
+          if (returnType.getSort() != Type.VOID) {
+            exit.loadOp(returnType, returnVariable);
+          }
+          AbstractInsnNode last = exit.returnOp(returnType);
+
+          mappingCode.insert(instruction, exit);
+          mappingCode.remove(instruction);
+          return last;
         }
-        exit.returnOp(returnType);
 
-        mappingCode.insert(instruction, exit);
-        mappingCode.remove(instruction);
+        return instruction;
       }
-    }
 
-    targetCode.add(mappingBase);
-    targetCode.add(mappingCode);
+      @Override
+      public void finish() {
+        targetCode.add(mappingBase);
+        targetCode.add(mapping.getInstructions());
 
-    target.addTryCatchBlocks(mapping.tryCatchBlocks);
+        target.addTryCatchBlocks(mapping.tryCatchBlocks);
+      }
+    };
+  }
+
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
   }
 }
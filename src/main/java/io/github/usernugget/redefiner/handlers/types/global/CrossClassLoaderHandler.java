@@ -16,8 +16,9 @@
 
 package io.github.usernugget.redefiner.handlers.types.global;
 
+import io.github.usernugget.redefiner.changes.ClassChange;
 import io.github.usernugget.redefiner.changes.MethodChange;
-import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
 import io.github.usernugget.redefiner.util.JavaInternals;
 import io.github.usernugget.redefiner.util.Jigsaw;
 import io.github.usernugget.redefiner.util.asm.ClassField;
@@ -28,11 +29,16 @@ import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
 import io.github.usernugget.redefiner.util.asm.io.ClassStructureCache;
 import io.github.usernugget.redefiner.util.asm.reflect.Reflection;
-import java.util.IdentityHashMap;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -47,17 +53,29 @@ import org.objectweb.asm.tree.TypeInsnNode;
 
 // Allowing mapping and target to have intersecting code
 // if they are defined in different classloaders
-public class CrossClassLoaderHandler implements Handler {
-
+public class CrossClassLoaderHandler implements InstructionRewriter {
+  private static final int TYPES = InstructionRewriter.mask(
+    AbstractInsnNode.METHOD_INSN, AbstractInsnNode.FIELD_INSN,
+    AbstractInsnNode.INVOKE_DYNAMIC_INSN, AbstractInsnNode.LDC_INSN,
+    AbstractInsnNode.TYPE_INSN, AbstractInsnNode.MULTIANEWARRAY_INSN
+  );
+
+  // Accessors of a single transform, members already defined by earlier transforms are reused
   private static final class Wrapper {
     private final ClassLoader overlappingLoader;
     private final ClassLoader targetLoader;
+    private final Map<String, ClassMethod> defined;
+    private final Map<String, ClassMethod> pending = new HashMap<>();
     private final Reflection reflection = new Reflection();
     private final ClassFile code = new ClassFile();
 
-    public Wrapper(ClassLoader overlappingLoader, ClassLoader targetLoader) {
+    public Wrapper(
+      ClassLoader overlappingLoader, ClassLoader targetLoader,
+      Map<String, ClassMethod> defined
+    ) {
       this.overlappingLoader = overlappingLoader;
       this.targetLoader = targetLoader;
+      this.defined = defined;
       this.code.visitSimpleInitializer();
       this.code.visit(
         JavaInternals.CLASS_VERSION,
@@ -69,7 +87,56 @@ public class CrossClassLoaderHandler implements Handler {
       );
     }
 
+    public ClassMethod wrapMethod(ClassMethod method) {
+      return this.wrap(
+        "method " + method.owner.name + '.' + method.name + method.desc,
+        () -> this.reflection.wrapMethod(method)
+      );
+    }
+
+    public ClassMethod wrapGetter(ClassField field) {
+      return this.wrap(
+        "getter " + field.owner.name + '.' + field.name + field.desc,
+        () -> this.reflection.wrapGetter(field)
+      );
+    }
+
+    public ClassMethod wrapSetter(ClassField field) {
+      return this.wrap(
+        "setter " + field.owner.name + '.' + field.name + field.desc,
+        () -> this.reflection.wrapSetter(field)
+      );
+    }
+
+    // Code is fully described by its name and descriptor
+    public ClassMethod wrapCode(String name, String desc, Consumer<Insns> code) {
+      return this.wrap("code " + name + desc, () -> {
+        ClassMethod method = this.code.visitMethod(
+          Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, desc
+        );
+
+        code.accept(method.getInstructions());
+        return this.reflection.wrapMethod(method);
+      });
+    }
+
+    private ClassMethod wrap(String key, Supplier<ClassMethod> factory) {
+      ClassMethod wrapper = this.defined.get(key);
+      if (wrapper == null) {
+        wrapper = this.pending.get(key);
+        if (wrapper == null) {
+          this.pending.put(key, wrapper = factory.get());
+        }
+      }
+
+      return wrapper;
+    }
+
     public void define(ClassSerializer serializer) {
+      if (this.pending.isEmpty()) {
+        return;
+      }
+
       if (!this.code.methods.isEmpty()) {
         serializer.defineClass(this.code, this.targetLoader);
       }
@@ -77,6 +144,8 @@ public class CrossClassLoaderHandler implements Handler {
       this.reflection.defineClasses(
         serializer, this.overlappingLoader, this.targetLoader
       );
+
+      this.defined.putAll(this.pending);
     }
 
     public ClassLoader getOverlappingLoader() {
@@ -84,30 +153,140 @@ public class CrossClassLoaderHandler implements Handler {
     }
   }
 
-  private ClassStructureCache cache;
+  // Overlapping loader -> mapping loader -> wrapped member -> accessor method
+  private final Map<ClassLoader, Map<ClassLoader, Map<String, ClassMethod>>> definedWrappers =
+    new WeakHashMap<>();
 
-  @Override
-  public void handleMethod(MethodChange change) {
-    if (this.cache == null) {
-      this.cache = new ClassStructureCache(change.getRedefiner().getClassSerializer());
+  // Classes resolved during a single transform, shared by all of its methods
+  private final class Resolver {
+    private final ClassLoader mappingLoader;
+    private final ClassLoader targetLoader;
+    private final Set<ClassLoader> accessibleLoaders;
+    // Internal name -> Class or the failure of its lookup
+    private final Map<String, Object> classes = new HashMap<>();
+    private final Map<String, Boolean> accessible = new HashMap<>();
+    private Wrapper wrapper;
+
+    public Resolver(ClassChange change) {
+      this.mappingLoader = change.getClassLoader();
+      this.targetLoader = change.getTargetClassLoader();
+      this.accessibleLoaders = findParents(this.targetLoader);
     }
 
-    ClassSerializer serializer = change.getRedefiner().getClassSerializer();
+    public Class<?> findClass(String name) {
+      Object klass = this.classes.get(name);
+      if (klass == null) {
+        try {
+          klass = CrossClassLoaderHandler.this.findClass(name, this.mappingLoader, this.targetLoader);
+        } catch (IllegalStateException e) {
+          klass = e;
+        }
+
+        this.classes.put(name, klass);
+      }
 
-    ClassFile mapping = change.getMappingClass();
-    ClassFile target = change.getTargetClass();
+      if (klass instanceof IllegalStateException) {
+        throw (IllegalStateException) klass;
+      }
 
-    ClassMethod mappingMethod = change.getMappingMethod();
+      return (Class<?>) klass;
+    }
+
+    public boolean isAccessible(String name) {
+      Boolean accessible = this.accessible.get(name);
+      if (accessible == null) {
+        ClassLoader loader = this.findClass(name).getClassLoader();
+        accessible = loader == null || this.accessibleLoaders.contains(loader);
+        this.accessible.put(name, accessible);
+      }
+
+      return accessible;
+    }
 
-    ClassLoader mappingLoader = change.getClassLoader();
-    ClassLoader targetLoader = change.getTargetJavaClass().getClassLoader();
+    // Call site types are resolved by the target when invokedynamic is linked
+    public boolean isLinkable(ClassFile target, String desc) {
+      Type type = Type.getMethodType(desc);
+      if (!this.isLinkable(target, type.getReturnType())) {
+        return false;
+      }
 
-    Set<ClassLoader> accessibleLoaders =
-      this.findParents(change.getTargetJavaClass().getClassLoader());
+      for (Type argumentType : type.getArgumentTypes()) {
+        if (!this.isLinkable(target, argumentType)) {
+          return false;
+        }
+      }
 
-    String targetName = change.getTargetClass().name;
+      return true;
+    }
 
-    Map<ClassLoader, Wrapper> wrappers = new IdentityHashMap<>();
+    private boolean isLinkable(ClassFile target, Type type) {
+      if (type.getSort() == Type.ARRAY) {
+        type = type.getElementType();
+      }
+
+      if (type.getSort() != Type.OBJECT || type.getInternalName().equals(target.name)) {
+        return true;
+      }
+
+      try {
+        return this.isAccessible(type.getInternalName());
+      } catch (IllegalStateException e) {
+        return false;
+      }
+    }
+  }
+
+  private final class MethodRewrite implements Rewrite {
+    private final MethodChange change;
+    private final ClassStructureCache cache;
+    private final ClassFile target;
+    private final Resolver resolver;
+
+    public MethodRewrite(MethodChange change) {
+      this.change = change;
+      this.cache = change.getRedefiner().getStructureCache();
+      this.target = change.getTargetClass();
+      this.resolver = change.getAttachment(CrossClassLoaderHandler.this, () -> new Resolver(change));
+    }
+
+    @Override
+    public AbstractInsnNode rewrite(Insns code, AbstractInsnNode instruction) {
+      try {
+        return CrossClassLoaderHandler.this.rewrite(this, code, instruction);
+      } catch (Throwable throwable) {
+        throw new IllegalStateException(
+          "failed to apply cross-classloader changes", throwable
+        );
+      }
+    }
+
+    // Accessors are shared by all methods of the transform, see finishClass
+    public Wrapper findWrapper() {
+      if (this.resolver.wrapper == null) {
+        if (this.change.getTargetJavaClass() == null) {
+          throw new UnsupportedOperationException(
+            "cross-classloader access is not supported for targets that are not loaded yet"
+          );
+        }
+
+        this.resolver.wrapper = createWrapper(this.target.name, this.resolver);
+        // Generated accessors don't exist after a restart
+        this.change.markNotCacheable();
+      }
+
+      return this.resolver.wrapper;
+    }
+  }
+
+  @Override
+  public int getInstructionTypes() {
+    return TYPES;
+  }
+
+  @Override
+  public Rewrite beginMethod(MethodChange change) {
+    MethodRewrite rewrite = new MethodRewrite(change);
+    ClassMethod mappingMethod = change.getMappingMethod();
 
     try {
       if (mappingMethod.tryCatchBlocks != null) {
@@ -115,9 +294,8 @@ public class CrossClassLoaderHandler implements Handler {
           if (catchNode.type == null) continue; // finally block
 
           if (!this.interactable(
-            catchNode.type, target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
+            catchNode.type, rewrite.target,
+            rewrite.resolver
           )) {
             throw new UnsupportedOperationException(
               "try-catch block is using class from inaccessible classloader"
@@ -125,125 +303,140 @@ public class CrossClassLoaderHandler implements Handler {
           }
         }
       }
+    } catch (Throwable throwable) {
+      throw new IllegalStateException(
+        "failed to apply cross-classloader changes", throwable
+      );
+    }
 
-      Insns mappingCode = mappingMethod.getInstructions();
-      for (AbstractInsnNode instruction : mappingCode) {
-        if (instruction instanceof MethodInsnNode) {
-          MethodInsnNode method = (MethodInsnNode) instruction;
-          if (!this.interactable(
-            method.owner, target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
-          )) {
-            // FIXME: trick frames to make it think this is normal
-            if (method.name.equals("<init>")) {
-              throw new UnsupportedOperationException(
-                "creating objects from another classloader is not supported yet, you " +
-                "can create " + method.owner + " from another method as a workaround"
-              );
-            }
+    return rewrite;
+  }
 
-            Wrapper wrapper = this.findWrapper(
-              wrappers, target.name, mappingLoader, targetLoader
-            );
+  @Override
+  public void finishClass(ClassChange change) {
+    Resolver resolver = change.removeAttachment(this);
+    if (resolver == null || resolver.wrapper == null) {
+      return;
+    }
 
-            Class<?> owner = this.findClass(method.owner, mappingLoader, targetLoader);
-            if (wrapper.getOverlappingLoader() != null) {
-              Jigsaw.implAddReads(owner, wrapper.getOverlappingLoader().getUnnamedModule());
-            }
+    Wrapper wrapper = resolver.wrapper;
 
-            ClassMethod ownerMethod = this.cache.readCached(owner).findMethod(method.name, method.desc);
-            if (ownerMethod == null) {
-              throw new IllegalStateException(
-                "method " + method.owner + "::" + method.name + method.desc +
-                " exists in code, but not in runtime"
-              );
-            }
+    if (wrapper.getOverlappingLoader() != null) {
+      Jigsaw.implAddReads(change.getTargetJavaClass(), wrapper.getOverlappingLoader().getUnnamedModule());
+    }
 
-            mappingCode.set(
-              instruction,
-              Ops.invoke(wrapper.reflection.wrapMethod(ownerMethod))
-            );
-          }
-        } else if (instruction instanceof FieldInsnNode) {
-          FieldInsnNode field = (FieldInsnNode) instruction;
-          if (!this.interactable(
-            field.owner, target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
-          )) {
-            Wrapper wrapper = this.findWrapper(
-              wrappers, target.name, mappingLoader, targetLoader
-            );
+    wrapper.define(change.getRedefiner().getClassSerializer());
+  }
 
-            Class<?> owner = this.findClass(field.owner, mappingLoader, targetLoader);
-            if (wrapper.getOverlappingLoader() != null) {
-              Jigsaw.implAddReads(owner, wrapper.getOverlappingLoader().getUnnamedModule());
-            }
+  private AbstractInsnNode rewrite(
+    MethodRewrite rewrite, Insns mappingCode, AbstractInsnNode instruction
+  ) throws IOException {
+    ClassStructureCache cache = rewrite.cache;
+    ClassFile target = rewrite.target;
+    Resolver resolver = rewrite.resolver;
+
+    if (instruction instanceof MethodInsnNode) {
+      MethodInsnNode method = (MethodInsnNode) instruction;
+      if (!this.interactable(
+        method.owner, target,
+        resolver
+      )) {
+        // FIXME: trick frames to make it think this is normal
+        if (method.name.equals("<init>")) {
+          throw new UnsupportedOperationException(
+            "creating objects from another classloader is not supported yet, you " +
+            "can create " + method.owner + " from another method as a workaround"
+          );
+        }
 
-            ClassField ownerField = this.cache.readCached(owner).findField(field.name, field.desc);
-            if (ownerField == null) {
-              throw new IllegalStateException(
-                "field " + field.desc + " " + field.owner + "." + field.name +
-                " exists in code, but not in runtime"
-              );
-            }
+        Wrapper wrapper = rewrite.findWrapper();
 
-            boolean setter = field.getOpcode() == Opcodes.PUTFIELD ||
-                             field.getOpcode() == Opcodes.PUTSTATIC;
+        Class<?> owner = resolver.findClass(method.owner);
+        if (wrapper.getOverlappingLoader() != null) {
+          Jigsaw.implAddReads(owner, wrapper.getOverlappingLoader().getUnnamedModule());
+        }
 
-            mappingCode.set(
-              instruction,
-              Ops.invoke(
-                setter ? wrapper.reflection.wrapSetter(ownerField) :
-                         wrapper.reflection.wrapGetter(ownerField)
-              )
-            );
-          }
-        } else if (instruction instanceof InvokeDynamicInsnNode) { // TODO: recheck
-          InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) instruction;
+        ClassMethod ownerMethod = cache.readCached(owner).findMethod(method.name, method.desc);
+        if (ownerMethod == null) {
+          throw new IllegalStateException(
+            "method " + method.owner + "::" + method.name + method.desc +
+            " exists in code, but not in runtime"
+          );
+        }
+
+        return replace(
+          mappingCode, instruction,
+          invokeWrapper(rewrite, wrapper.wrapMethod(ownerMethod))
+        );
+      }
+    } else if (instruction instanceof FieldInsnNode) {
+      FieldInsnNode field = (FieldInsnNode) instruction;
+      if (!this.interactable(
+        field.owner, target,
+        resolver
+      )) {
+        Wrapper wrapper = rewrite.findWrapper();
+
+        Class<?> owner = resolver.findClass(field.owner);
+        if (wrapper.getOverlappingLoader() != null) {
+          Jigsaw.implAddReads(owner, wrapper.getOverlappingLoader().getUnnamedModule());
+        }
 
-          boolean replace = !this.interactable(
-            invokeDynamic.bsm.getOwner(), target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
+        ClassField ownerField = cache.readCached(owner).findField(field.name, field.desc);
+        if (ownerField == null) {
+          throw new IllegalStateException(
+            "field " + field.desc + " " + field.owner + "." + field.name +
+            " exists in code, but not in runtime"
           );
+        }
 
-          if (!replace) {
-            for (Object arg : invokeDynamic.bsmArgs) {
-              if (arg instanceof Handle) {
-                replace = !this.interactable(
-                  ((Handle) arg).getOwner(), target,
-                  accessibleLoaders,
-                  mappingLoader, targetLoader
-                );
-              } else if (arg instanceof Type) {
-                replace = !this.interactable(
-                  (Type) arg, target,
-                  accessibleLoaders,
-                  mappingLoader, targetLoader
-                );
-              }
-
-              if (replace) {
-                break;
-              }
-            }
+        boolean setter = field.getOpcode() == Opcodes.PUTFIELD ||
+                         field.getOpcode() == Opcodes.PUTSTATIC;
+
+        return replace(
+          mappingCode, instruction,
+          invokeWrapper(
+            rewrite, setter ? wrapper.wrapSetter(ownerField) :
+                              wrapper.wrapGetter(ownerField)
+          )
+        );
+      }
+    } else if (instruction instanceof InvokeDynamicInsnNode) { // TODO: recheck
+      InvokeDynamicInsnNode invokeDynamic = (InvokeDynamicInsnNode) instruction;
+
+      boolean replace = !this.interactable(
+        invokeDynamic.bsm.getOwner(), target,
+        resolver
+      );
+
+      if (!replace) {
+        for (Object arg : invokeDynamic.bsmArgs) {
+          if (arg instanceof Handle) {
+            replace = !this.interactable(
+              ((Handle) arg).getOwner(), target,
+              resolver
+            );
+          } else if (arg instanceof Type) {
+            replace = !this.interactable(
+              (Type) arg, target,
+              resolver
+            );
           }
 
           if (replace) {
-            Wrapper wrapper = this.findWrapper(
-              wrappers, target.name, mappingLoader, targetLoader
-            );
+            break;
+          }
+        }
+      }
 
-            ClassMethod wrappedType = wrapper.code.visitMethod(
-              Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-              Reflection.escapeName("InvokeDynamic_" + ClassFile.generateClassEnding()),
-              invokeDynamic.desc
-            );
+      if (replace) {
+        Wrapper wrapper = rewrite.findWrapper();
 
+        ClassMethod wrappedType = wrapper.wrapCode(
+          Reflection.escapeName("InvokeDynamic_" + ClassFile.generateClassEnding()),
+          invokeDynamic.desc,
+          code -> {
             Type descType = Type.getType(invokeDynamic.desc);
-            Insns code = wrappedType.getInstructions();
 
             int index = 0;
             for (Type argumentType : descType.getArgumentTypes()) {
@@ -254,173 +447,152 @@ public class CrossClassLoaderHandler implements Handler {
 
             code.add(invokeDynamic.clone(null));
             code.returnOp(descType.getReturnType());
-
-            mappingCode.set(
-              instruction,
-              Ops.invoke(wrapper.reflection.wrapMethod(wrappedType))
-            );
           }
-        } else if (instruction instanceof LdcInsnNode) {
-          LdcInsnNode ldc = (LdcInsnNode) instruction;
-          if (ldc.cst instanceof Type) {
-            Type type = (Type) ldc.cst;
-
-            String className;
-            if (type.getSort() == Type.ARRAY) {
-              className = type.getElementType().getInternalName();
-            } else { // OBJECT
-              className = type.getInternalName();
-            }
+        );
+
+        return replace(mappingCode, instruction, invokeWrapper(rewrite, wrappedType));
+      }
+    } else if (instruction instanceof LdcInsnNode) {
+      LdcInsnNode ldc = (LdcInsnNode) instruction;
+      if (ldc.cst instanceof Type) {
+        Type type = (Type) ldc.cst;
+
+        String className;
+        if (type.getSort() == Type.ARRAY) {
+          className = type.getElementType().getInternalName();
+        } else { // OBJECT
+          className = type.getInternalName();
+        }
+
+        if (!this.interactable(
+          className, target,
+          resolver
+        )) {
+          Wrapper wrapper = rewrite.findWrapper();
 
-            if (!this.interactable(
-              className, target,
-              accessibleLoaders,
-              mappingLoader, targetLoader
-            )) {
-              Wrapper wrapper = this.findWrapper(
-                wrappers, target.name, mappingLoader, targetLoader
-              );
-
-              ClassMethod wrappedType = wrapper.code.visitMethod(
-                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-                Reflection.escapeName("ClassType_" + type.getInternalName()),
-                "()Ljava/lang/Class;"
-              );
-
-              Insns code = wrappedType.getInstructions();
+          ClassMethod wrappedType = wrapper.wrapCode(
+            Reflection.escapeName("ClassType_" + type.getInternalName()),
+            "()Ljava/lang/Class;",
+            code -> {
               code.ldc(type);
               code.op(Opcodes.ARETURN);
-
-              mappingCode.set(
-                instruction,
-                Ops.invoke(wrapper.reflection.wrapMethod(wrappedType))
-              );
             }
-          }
-
-          // FIXME:
-          //  ldc.cst instanceof Handle
-          //  ldc.cst instanceof ConstantDynamic
-        } else if (instruction instanceof TypeInsnNode) {
-          TypeInsnNode type = (TypeInsnNode) instruction;
+          );
 
-          // FIXME
-          if (type.getOpcode() == Opcodes.NEW) continue;
+          return replace(mappingCode, instruction, invokeWrapper(rewrite, wrappedType));
+        }
+      }
 
-          if (!this.interactable(
-            type.desc, target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
-          )) {
-            Wrapper wrapper = this.findWrapper(
-              wrappers, target.name, mappingLoader, targetLoader
-            );
+      // FIXME:
+      //  ldc.cst instanceof Handle
+      //  ldc.cst instanceof ConstantDynamic
+    } else if (instruction instanceof TypeInsnNode) {
+      TypeInsnNode type = (TypeInsnNode) instruction;
 
-            ClassMethod wrappedType;
-            if (type.getOpcode() == Opcodes.ANEWARRAY) {
-              wrappedType = wrapper.code.visitMethod(
-                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-                Reflection.escapeName("ArrayType_" + type.desc),
-                "(I)[L" + type.desc + ';'
-              );
+      // FIXME
+      if (type.getOpcode() == Opcodes.NEW) return instruction;
 
-              Insns code = wrappedType.getInstructions();
+      if (!this.interactable(
+        type.desc, target,
+        resolver
+      )) {
+        Wrapper wrapper = rewrite.findWrapper();
+
+        ClassMethod wrappedType;
+        if (type.getOpcode() == Opcodes.ANEWARRAY) {
+          wrappedType = wrapper.wrapCode(
+            Reflection.escapeName("ArrayType_" + type.desc),
+            "(I)[L" + type.desc + ';',
+            code -> {
               code.varOp(Opcodes.ILOAD, 0);
               code.typeOp(type.getOpcode(), type.desc);
               code.op(Opcodes.ARETURN);
-            } else if (type.getOpcode() == Opcodes.NEW) {
-              wrappedType = wrapper.code.visitMethod(
-                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-                Reflection.escapeName("NewType_" + type.desc),
-                "()L" + type.desc + ';'
-              );
-
-              Insns code = wrappedType.getInstructions();
+            }
+          );
+        } else if (type.getOpcode() == Opcodes.NEW) {
+          wrappedType = wrapper.wrapCode(
+            Reflection.escapeName("NewType_" + type.desc),
+            "()L" + type.desc + ';',
+            code -> {
               code.typeOp(type.getOpcode(), type.desc);
               code.op(Opcodes.ARETURN);
-            } else if (type.getOpcode() == Opcodes.CHECKCAST) {
-              wrappedType = wrapper.code.visitMethod(
-                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-                Reflection.escapeName("TypeCheckCast_" + type.desc),
-                "(Ljava/lang/Object;)Ljava/lang/Object;"
-              );
-
-              Insns code = wrappedType.getInstructions();
+            }
+          );
+        } else if (type.getOpcode() == Opcodes.CHECKCAST) {
+          wrappedType = wrapper.wrapCode(
+            Reflection.escapeName("TypeCheckCast_" + type.desc),
+            "(Ljava/lang/Object;)Ljava/lang/Object;",
+            code -> {
               code.varOp(Opcodes.ALOAD, 0);
               code.typeOp(type.getOpcode(), type.desc);
               code.op(Opcodes.ARETURN);
-            } else {
-              continue;
             }
+          );
+        } else {
+          return instruction;
+        }
 
-            mappingCode.set(
-              instruction,
-              Ops.invoke(wrapper.reflection.wrapMethod(wrappedType))
-            );
-          }
-        } else if (instruction instanceof MultiANewArrayInsnNode) {
-          MultiANewArrayInsnNode array = (MultiANewArrayInsnNode) instruction;
-          Type type = Type.getType(array.desc);
-          Type element = type.getElementType();
-
-          if (!this.interactable(
-            element.getInternalName(), target,
-            accessibleLoaders,
-            mappingLoader, targetLoader
-          )) {
-            Wrapper wrapper = this.findWrapper(
-              wrappers, target.name, mappingLoader, targetLoader
-            );
-
-            int dimensions = type.getDimensions();
-
-            ClassMethod wrappedType = wrapper.code.visitMethod(
-              Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC,
-              Reflection.escapeName("MultiANewArray_" + array.desc),
-              "(" + "I".repeat(dimensions) + ")" + array.desc
-            );
+        return replace(mappingCode, instruction, invokeWrapper(rewrite, wrappedType));
+      }
+    } else if (instruction instanceof MultiANewArrayInsnNode) {
+      MultiANewArrayInsnNode array = (MultiANewArrayInsnNode) instruction;
+      Type type = Type.getType(array.desc);
+      Type element = type.getElementType();
+
+      if (!this.interactable(
+        element.getInternalName(), target,
+        resolver
+      )) {
+        Wrapper wrapper = rewrite.findWrapper();
 
-            Insns code = wrappedType.getInstructions();
+        int dimensions = type.getDimensions();
 
+        ClassMethod wrappedType = wrapper.wrapCode(
+          Reflection.escapeName("MultiANewArray_" + array.desc),
+          "(" + "I".repeat(dimensions) + ")" + array.desc,
+          code -> {
             for (int index = 0; index < dimensions; index++) {
               code.varOp(Opcodes.ILOAD, index);
             }
 
             code.add(new MultiANewArrayInsnNode(array.desc, array.dims));
             code.op(Opcodes.ARETURN);
-
-            mappingCode.set(
-              instruction,
-              Ops.invoke(wrapper.reflection.wrapMethod(wrappedType))
-            );
           }
-        }
+        );
+
+        return replace(mappingCode, instruction, invokeWrapper(rewrite, wrappedType));
       }
-    } catch (Throwable throwable) {
-      throw new IllegalStateException(
-        "failed to apply cross-classloader changes", throwable
-      );
     }
 
-    for (Wrapper wrapper : wrappers.values()) {
-      if (wrapper.getOverlappingLoader() != null) {
-        Jigsaw.implAddReads(change.getTargetJavaClass(), wrapper.getOverlappingLoader().getUnnamedModule());
-      }
-      wrapper.define(serializer);
+    return instruction;
+  }
+
+  // The bootstrap method is on an interface, which older classes can't reference from a handle
+  private static AbstractInsnNode invokeWrapper(MethodRewrite rewrite, ClassMethod wrapper) {
+    if ((rewrite.target.version & 0xFFFF) >= Opcodes.V1_8 &&
+        rewrite.resolver.isLinkable(rewrite.target, wrapper.desc)) {
+      return Reflection.invokeDynamic(wrapper);
     }
+
+    return Ops.invoke(wrapper);
   }
 
-  private Wrapper findWrapper(
-    Map<ClassLoader, Wrapper> reflections,
-    String name, ClassLoader mapping, ClassLoader target
+  private static AbstractInsnNode replace(
+    Insns code, AbstractInsnNode instruction, AbstractInsnNode replacement
   ) {
+    code.set(instruction, replacement);
+    return replacement;
+  }
 
+  private Wrapper createWrapper(String name, Resolver resolver) {
+    ClassLoader mapping = resolver.mappingLoader;
+    ClassLoader target = resolver.targetLoader;
     ClassLoader intersection = target;
 
     if (target != null) {
-      Set<ClassLoader> targets = this.findParents(target);
+      Set<ClassLoader> targets = resolver.accessibleLoaders;
       for (ClassLoader parent : this.findParents(
-        this.findClass(name, mapping, target).getClassLoader()
+        resolver.findClass(name).getClassLoader()
       )) {
         if (targets.contains(parent)) {
           intersection = parent;
@@ -429,7 +601,14 @@ public class CrossClassLoaderHandler implements Handler {
       }
     }
 
-    return reflections.computeIfAbsent(intersection, key -> new Wrapper(key, mapping));
+    Map<String, ClassMethod> defined;
+    synchronized (this.definedWrappers) {
+      defined = this.definedWrappers
+        .computeIfAbsent(intersection, key -> new WeakHashMap<>())
+        .computeIfAbsent(mapping, key -> new ConcurrentHashMap<>());
+    }
+
+    return new Wrapper(intersection, mapping, defined);
   }
 
   private Class<?> findClass(String name, ClassLoader mapping, ClassLoader target) {
@@ -454,15 +633,13 @@ public class CrossClassLoaderHandler implements Handler {
 
   private boolean interactable(
     Type type, ClassFile target,
-    Set<ClassLoader> accessibleLoaders,
-    ClassLoader mappingLoader, ClassLoader targetLoader
+    Resolver resolver
   ) {
     if (type.getSort() == Type.METHOD) {
       for (Type argumentType : type.getArgumentTypes()) {
         if (!this.interactable(
           argumentType, target,
-          accessibleLoaders,
-          mappingLoader, targetLoader
+          resolver
         )) {
           return false;
         }
@@ -470,15 +647,13 @@ public class CrossClassLoaderHandler implements Handler {
 
       return !this.interactable(
         type.getReturnType(), target,
-        accessibleLoaders,
-        mappingLoader, targetLoader
+        resolver
       );
     } else if (type.getSort() == Type.OBJECT ||
                type.getSort() == Type.ARRAY) {
       return !this.interactable(
         type.getInternalName(), target,
-        accessibleLoaders,
-        mappingLoader, targetLoader
+        resolver
       );
     }
 
@@ -487,18 +662,13 @@ public class CrossClassLoaderHandler implements Handler {
 
   private boolean interactable(
     String owner, ClassFile target,
-    Set<ClassLoader> accessibleLoaders,
-    ClassLoader mappingLoader, ClassLoader targetLoader
+    Resolver resolver
   ) {
     if (owner.equals(target.name)) {
       return true;
     }
 
-    ClassLoader loader = this.findClass(
-      owner, mappingLoader, targetLoader
-    ).getClassLoader();
-
-    return loader == null || accessibleLoaders.contains(loader);
+    return resolver.isAccessible(owner);
   }
 
   protected Set<ClassLoader> findParents(ClassLoader classLoader) {
@@ -513,4 +683,9 @@ public class CrossClassLoaderHandler implements Handler {
 
     return classLoaders;
   }
+
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
+  }
 }
@@ -17,7 +17,7 @@
 package io.github.usernugget.redefiner.handlers.types.global;
 
 import io.github.usernugget.redefiner.changes.MethodChange;
-import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
 import io.github.usernugget.redefiner.handlers.Op;
 import io.github.usernugget.redefiner.util.asm.Ops;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
@@ -27,120 +27,135 @@ import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
 // Converts Op.returnOp(*) to plain returns
-public class OpHandler implements Handler {
+public class OpHandler implements InstructionRewriter {
   private static final String OP_NAME = Type.getInternalName(Op.class);
+  private static final int TYPES = InstructionRewriter.mask(AbstractInsnNode.METHOD_INSN);
 
   @Override
-  public void handleMethod(MethodChange change) {
+  public int getInstructionTypes() {
+    return TYPES;
+  }
+
+  @Override
+  public Rewrite beginMethod(MethodChange change) {
     Type targetReturn = change.findTargetMethod().returnType();
+    return (mappingCode, instruction) ->
+      this.rewrite(targetReturn, mappingCode, (MethodInsnNode) instruction);
+  }
 
-    Insns mappingCode = change.getMappingMethod().getInstructions();
-    for (AbstractInsnNode instruction : mappingCode) {
-      if (instruction instanceof MethodInsnNode) {
-        MethodInsnNode method = (MethodInsnNode) instruction;
-        // TODO: think about method comparsion under obfuscation
-        if (method.owner.equals(OP_NAME)) {
-          Type[] arguments = Type.getArgumentTypes(method.desc);
-          Type opReturn = arguments.length == 0 ? Type.VOID_TYPE : arguments[0];
+  private AbstractInsnNode rewrite(Type targetReturn, Insns mappingCode, MethodInsnNode method) {
+    // TODO: think about method comparsion under obfuscation
+    if (method.owner.equals(OP_NAME)) {
+      Type[] arguments = Type.getArgumentTypes(method.desc);
+      Type opReturn = arguments.length == 0 ? Type.VOID_TYPE : arguments[0];
 
-          // type != type && !(object || object)
-          if (opReturn.getSort() != targetReturn.getSort() &&
-              ((opReturn.getSort() != Type.OBJECT &&
-                opReturn.getSort() != Type.ARRAY) ||
-               (targetReturn.getSort() != Type.OBJECT &&
-                targetReturn.getSort() != Type.ARRAY))) {
-            // Not a number, so can't convert
-            if ((opReturn.getSort() < Type.BOOLEAN ||
-                 opReturn.getSort() > Type.DOUBLE ||
-                 targetReturn.getSort() < Type.BOOLEAN ||
-                 targetReturn.getSort() > Type.DOUBLE)) {
-              throw new IllegalStateException(
-                "Op::returnOp type " + opReturn + " is not compatible with " + targetReturn
-              );
-            }
+      // type != type && !(object || object)
+      if (opReturn.getSort() != targetReturn.getSort() &&
+          ((opReturn.getSort() != Type.OBJECT &&
+            opReturn.getSort() != Type.ARRAY) ||
+           (targetReturn.getSort() != Type.OBJECT &&
+            targetReturn.getSort() != Type.ARRAY))) {
+        // Not a number, so can't convert
+        if ((opReturn.getSort() < Type.BOOLEAN ||
+             opReturn.getSort() > Type.DOUBLE ||
+             targetReturn.getSort() < Type.BOOLEAN ||
+             targetReturn.getSort() > Type.DOUBLE)) {
+          throw new IllegalStateException(
+            "Op::returnOp type " + opReturn + " is not compatible with " + targetReturn
+          );
+        }
 
-            Insns conversion = new Insns();
+        Insns conversion = new Insns();
 
-            switch (opReturn.getSort()) {
-              case Type.INT: {
-                switch (targetReturn.getSort()) {
-                  case Type.BYTE:    { conversion.op(Opcodes.I2B); break; }
-                  case Type.CHAR:    { conversion.op(Opcodes.I2C); break; }
-                  case Type.SHORT:   { conversion.op(Opcodes.I2S); break; }
-                  case Type.FLOAT:   { conversion.op(Opcodes.I2F); break; }
-                  case Type.LONG:    { conversion.op(Opcodes.I2L); break; }
-                  case Type.DOUBLE:  { conversion.op(Opcodes.I2D); break; }
-                }
-                break;
-              }
-              case Type.FLOAT: {
+        switch (opReturn.getSort()) {
+          case Type.INT: {
+            switch (targetReturn.getSort()) {
+              case Type.BYTE:    { conversion.op(Opcodes.I2B); break; }
+              case Type.CHAR:    { conversion.op(Opcodes.I2C); break; }
+              case Type.SHORT:   { conversion.op(Opcodes.I2S); break; }
+              case Type.FLOAT:   { conversion.op(Opcodes.I2F); break; }
+              case Type.LONG:    { conversion.op(Opcodes.I2L); break; }
+              case Type.DOUBLE:  { conversion.op(Opcodes.I2D); break; }
+            }
+            break;
+          }
+          case Type.FLOAT: {
+            switch (targetReturn.getSort()) {
+              case Type.CHAR:
+              case Type.BYTE:
+              case Type.SHORT:
+              case Type.INT:
+              case Type.BOOLEAN: {
+                conversion.op(Opcodes.F2I);
                 switch (targetReturn.getSort()) {
-                  case Type.CHAR:
-                  case Type.BYTE:
-                  case Type.SHORT:
-                  case Type.INT:
-                  case Type.BOOLEAN: {
-                    conversion.op(Opcodes.F2I);
-                    switch (targetReturn.getSort()) {
-                      case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
-                      case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
-                      case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
-                    }
-                  }
-                  case Type.LONG:    { conversion.op(Opcodes.F2L); break; }
-                  case Type.DOUBLE:  { conversion.op(Opcodes.F2D); break; }
+                  case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
+                  case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
+                  case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
                 }
-                break;
               }
-              case Type.LONG: {
+              case Type.LONG:    { conversion.op(Opcodes.F2L); break; }
+              case Type.DOUBLE:  { conversion.op(Opcodes.F2D); break; }
+            }
+            break;
+          }
+          case Type.LONG: {
+            switch (targetReturn.getSort()) {
+              case Type.CHAR:
+              case Type.BYTE:
+              case Type.SHORT:
+              case Type.INT:
+              case Type.BOOLEAN: {
+                conversion.op(Opcodes.L2I);
                 switch (targetReturn.getSort()) {
-                  case Type.CHAR:
-                  case Type.BYTE:
-                  case Type.SHORT:
-                  case Type.INT:
-                  case Type.BOOLEAN: {
-                    conversion.op(Opcodes.L2I);
-                    switch (targetReturn.getSort()) {
-                      case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
-                      case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
-                      case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
-                    }
-                  }
-                  case Type.FLOAT:   { conversion.op(Opcodes.L2F); break; }
-                  case Type.DOUBLE:  { conversion.op(Opcodes.F2D); break; }
+                  case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
+                  case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
+                  case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
                 }
-                break;
               }
-              case Type.DOUBLE: {
+              case Type.FLOAT:   { conversion.op(Opcodes.L2F); break; }
+              case Type.DOUBLE:  { conversion.op(Opcodes.F2D); break; }
+            }
+            break;
+          }
+          case Type.DOUBLE: {
+            switch (targetReturn.getSort()) {
+              case Type.CHAR:
+              case Type.BYTE:
+              case Type.SHORT:
+              case Type.INT:
+              case Type.BOOLEAN: {
+                conversion.op(Opcodes.D2I);
                 switch (targetReturn.getSort()) {
-                  case Type.CHAR:
-                  case Type.BYTE:
-                  case Type.SHORT:
-                  case Type.INT:
-                  case Type.BOOLEAN: {
-                    conversion.op(Opcodes.D2I);
-                    switch (targetReturn.getSort()) {
-                      case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
-                      case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
-                      case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
-                    }
-                  }
-                  case Type.FLOAT:   { conversion.op(Opcodes.D2F); break; }
-                  case Type.LONG:    { conversion.op(Opcodes.D2L); break; }
+                  case Type.CHAR:  { conversion.op(Opcodes.I2C); break; }
+                  case Type.BYTE:  { conversion.op(Opcodes.I2B); break; }
+                  case Type.SHORT: { conversion.op(Opcodes.I2S); break; }
                 }
-                break;
               }
+              case Type.FLOAT:   { conversion.op(Opcodes.D2F); break; }
+              case Type.LONG:    { conversion.op(Opcodes.D2L); break; }
             }
-
-            conversion.add(Ops.injectedReturnOp(targetReturn));
-
-            mappingCode.insert(instruction, conversion);
-            mappingCode.remove(instruction);
-          } else {
-            mappingCode.set(instruction, Ops.injectedReturnOp(opReturn));
+            break;
           }
         }
+
+        conversion.add(Ops.injectedReturnOp(targetReturn));
+
+        AbstractInsnNode last = conversion.getLast();
+        mappingCode.insert(method, conversion);
+        mappingCode.remove(method);
+        return last;
+      } else {
+        AbstractInsnNode replacement = Ops.injectedReturnOp(opReturn);
+        mappingCode.set(method, replacement);
+        return replacement;
       }
     }
+
+    return method;
+  }
+
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
   }
 }
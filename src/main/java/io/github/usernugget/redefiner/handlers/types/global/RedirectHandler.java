@@ -17,8 +17,7 @@
 package io.github.usernugget.redefiner.handlers.types.global;
 
 import io.github.usernugget.redefiner.changes.MethodChange;
-import io.github.usernugget.redefiner.handlers.Handler;
-import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FieldInsnNode;
@@ -28,52 +27,79 @@ import org.objectweb.asm.tree.MultiANewArrayInsnNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 
 // Redirect mapping calls to itself into calls to target
-public class RedirectHandler implements Handler {
+public class RedirectHandler implements InstructionRewriter {
+  private static final int TYPES = InstructionRewriter.mask(
+    AbstractInsnNode.METHOD_INSN, AbstractInsnNode.FIELD_INSN,
+    AbstractInsnNode.LDC_INSN, AbstractInsnNode.TYPE_INSN,
+    AbstractInsnNode.MULTIANEWARRAY_INSN
+  );
+
+  @Override
+  public int getInstructionTypes() {
+    return TYPES;
+  }
+
   @Override
-  public void handleMethod(MethodChange change) {
+  public Rewrite beginMethod(MethodChange change) {
     String mappingName = change.getMappingClass().name;
     String targetName = change.getTargetClass().name;
 
-    Insns mappingCode = change.getMappingMethod().getInstructions();
-    for (AbstractInsnNode instruction : mappingCode) {
-      if (instruction instanceof MethodInsnNode) {
-        MethodInsnNode method = (MethodInsnNode) instruction;
-        if (method.owner.equals(mappingName)) {
-          method.owner = targetName;
-        }
-      } else if (instruction instanceof FieldInsnNode) {
-        FieldInsnNode field = (FieldInsnNode) instruction;
-        if (field.owner.equals(mappingName)) {
-          field.owner = targetName;
+    return (code, instruction) -> {
+      switch (instruction.getType()) {
+        case AbstractInsnNode.METHOD_INSN: {
+          MethodInsnNode method = (MethodInsnNode) instruction;
+          if (method.owner.equals(mappingName)) {
+            method.owner = targetName;
+          }
+          break;
         }
-      } else if (instruction instanceof LdcInsnNode) {
-        LdcInsnNode ldc = (LdcInsnNode) instruction;
-        if (ldc.cst instanceof Type) {
-          if (((Type) ldc.cst).getInternalName().equals(mappingName)) {
-            ldc.cst = Type.getObjectType(targetName);
+        case AbstractInsnNode.FIELD_INSN: {
+          FieldInsnNode field = (FieldInsnNode) instruction;
+          if (field.owner.equals(mappingName)) {
+            field.owner = targetName;
           }
+          break;
         }
+        case AbstractInsnNode.LDC_INSN: {
+          LdcInsnNode ldc = (LdcInsnNode) instruction;
+          if (ldc.cst instanceof Type) {
+            if (((Type) ldc.cst).getInternalName().equals(mappingName)) {
+              ldc.cst = Type.getObjectType(targetName);
+            }
+          }
 
-        // FIXME
-        //  ldc.cst instanceof Handle
-        //  ldc.cst instanceof ConstantDynamic
-      } else if (instruction instanceof TypeInsnNode) {
-        TypeInsnNode type = (TypeInsnNode) instruction;
-        if (type.desc.equals(mappingName)) {
-          type.desc = targetName;
+          // FIXME
+          //  ldc.cst instanceof Handle
+          //  ldc.cst instanceof ConstantDynamic
+          break;
         }
-      } else if (instruction instanceof MultiANewArrayInsnNode) {
-        MultiANewArrayInsnNode array = (MultiANewArrayInsnNode) instruction;
-        Type type = Type.getType(array.desc);
-        Type element = type.getElementType();
+        case AbstractInsnNode.TYPE_INSN: {
+          TypeInsnNode type = (TypeInsnNode) instruction;
+          if (type.desc.equals(mappingName)) {
+            type.desc = targetName;
+          }
+          break;
+        }
+        case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+          MultiANewArrayInsnNode array = (MultiANewArrayInsnNode) instruction;
+          Type type = Type.getType(array.desc);
+          Type element = type.getElementType();
 
-        if (element.getInternalName().equals(mappingName)) {
-          array.desc = "]".repeat(type.getDimensions()) + element.getDescriptor();
+          if (element.getInternalName().equals(mappingName)) {
+            array.desc = "]".repeat(type.getDimensions()) + element.getDescriptor();
+          }
+          break;
         }
       }
       // FIXME
       //  instruction instanceof InvokeDynamicInsnNode
-    }
 
+      return instruction;
+    };
+  }
+
+  @Override
+  public boolean mayEditTargetsInPlace() {
+    return false;
   }
 }
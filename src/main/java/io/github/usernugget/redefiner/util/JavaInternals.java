@@ -17,8 +17,10 @@
 package io.github.usernugget.redefiner.util;
 
 import io.github.usernugget.redefiner.util.asm.ClassFile;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import sun.misc.Unsafe;
 
@@ -29,6 +31,14 @@ public class JavaInternals {
   public static final Unsafe UNSAFE;
 
   private static final jdk.internal.misc.Unsafe INTERNAL_UNSAFE;
+  private static final MethodHandle FIND_LOADED_CLASS;
+  private static final MethodHandle FIND_BOOTSTRAP_CLASS;
+  private static final MethodHandle GET_CLASS_LOADING_LOCK;
+
+  // Lookup::defineHiddenClass and its options, null before Java 15
+  private static final MethodHandle DEFINE_HIDDEN_CLASS = findDefineHiddenClass();
+  private static final Object NO_CLASS_OPTIONS = classOptions();
+  private static final Object NESTMATE_CLASS_OPTIONS = classOptions("NESTMATE");
 
   static {
     try {
@@ -51,6 +61,14 @@ public class JavaInternals {
       INTERNAL_UNSAFE = (jdk.internal.misc.Unsafe) TRUSTED.findStatic(
         unsafeClass, "getUnsafe", MethodType.methodType(unsafeClass)
       ).invoke();
+
+      FIND_LOADED_CLASS = TRUSTED.findVirtual(
+        ClassLoader.class, "findLoadedClass", MethodType.methodType(Class.class, String.class)
+      );
+      FIND_BOOTSTRAP_CLASS = findBootstrapClass();
+      GET_CLASS_LOADING_LOCK = TRUSTED.findVirtual(
+        ClassLoader.class, "getClassLoadingLock", MethodType.methodType(Object.class, String.class)
+      );
     } catch (Throwable throwable) {
       throw new ExceptionInInitializerError(throwable);
     }
@@ -62,6 +80,107 @@ public class JavaInternals {
            "os: " + System.getProperty("os.name");
   }
 
+  // ClassLoader::findBootstrapClassOrNull takes the classloader before Java 13
+  private static MethodHandle findBootstrapClass() throws ReflectiveOperationException {
+    try {
+      return TRUSTED.findStatic(
+        ClassLoader.class, "findBootstrapClassOrNull", MethodType.methodType(Class.class, String.class)
+      );
+    } catch (NoSuchMethodException e) {
+      return MethodHandles.insertArguments(TRUSTED.findStatic(
+        ClassLoader.class, "findBootstrapClassOrNull",
+        MethodType.methodType(Class.class, ClassLoader.class, String.class)
+      ), 0, (Object) null);
+    }
+  }
+
+  private static MethodHandle findDefineHiddenClass() {
+    try {
+      Class<?> options = Class.forName("[Ljava.lang.invoke.MethodHandles$Lookup$ClassOption;");
+      return MethodHandles.publicLookup().findVirtual(
+        MethodHandles.Lookup.class, "defineHiddenClass",
+        MethodType.methodType(MethodHandles.Lookup.class, byte[].class, boolean.class, options)
+      ).asFixedArity();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object classOptions(String... names) {
+    try {
+      Class<? extends Enum> option = (Class<? extends Enum>)
+        Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+
+      Object options = Array.newInstance(option, names.length);
+      for (int index = 0; index < names.length; index++) {
+        Array.set(options, index, Enum.valueOf(option, names[index]));
+      }
+
+      return options;
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  public static boolean supportsHiddenClasses() {
+    return DEFINE_HIDDEN_CLASS != null;
+  }
+
+  /**
+   * Defines a hidden class in the package and classloader of the host, see Lookup::defineHiddenClass
+   *
+   * @param nestmate if true, the class gets access to private members of the host's nest
+   */
+  public static Class<?> defineHiddenClass(Class<?> host, byte[] classBytes, boolean nestmate) {
+    if (DEFINE_HIDDEN_CLASS == null) {
+      throw new IllegalStateException("hidden classes are not supported, " + getJvmInfo());
+    }
+
+    try {
+      return ((MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(
+        TRUSTED.in(host), classBytes, false,
+        nestmate ? NESTMATE_CLASS_OPTIONS : NO_CLASS_OPTIONS
+      )).lookupClass();
+    } catch (Throwable e) {
+      throw new IllegalStateException("failed to define hidden class in " + host.getName(), e);
+    }
+  }
+
+  /**
+   * Class with the binary name loaded by the classloader, null if it wasn't loaded yet
+   */
+  public static Class<?> findLoadedClass(ClassLoader classLoader, String name) {
+    try {
+      return (Class<?>) FIND_LOADED_CLASS.invoke(classLoader, name);
+    } catch (Throwable e) {
+      throw new IllegalStateException("failed to find loaded class " + name, e);
+    }
+  }
+
+  /**
+   * Class with the binary name from the bootstrap classloader, null if there's none.
+   * Loads the class if it wasn't loaded yet
+   */
+  public static Class<?> findBootstrapClass(String name) {
+    try {
+      return (Class<?>) FIND_BOOTSTRAP_CLASS.invoke(name);
+    } catch (Throwable e) {
+      throw new IllegalStateException("failed to find bootstrap class " + name, e);
+    }
+  }
+
+  /**
+   * Lock held by the classloader while it loads the class with the binary name
+   */
+  public static Object getClassLoadingLock(ClassLoader classLoader, String name) {
+    try {
+      return GET_CLASS_LOADING_LOCK.invoke(classLoader, name);
+    } catch (Throwable e) {
+      throw new IllegalStateException("failed to get class loading lock of " + name, e);
+    }
+  }
+
   public static Class<?> defineClass(
      ClassFile classFile, ClassLoader classLoader, byte[] classBytes
   ) {
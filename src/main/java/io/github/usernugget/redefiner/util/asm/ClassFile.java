@@ -23,6 +23,7 @@ import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -33,6 +34,13 @@ import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 public class ClassFile extends ClassNode implements AccessFlags {
+  // Seeded with time so names differ between runs, incremented so they never collide between threads
+  private static final AtomicLong CLASS_ENDING = new AtomicLong(System.nanoTime());
+
+  // Built on first lookup, kept up to date by visitMethod/visitField
+  private volatile MemberIndex<MethodNode> methodIndex;
+  private volatile MemberIndex<FieldNode> fieldIndex;
+
   public ClassFile() {
     super(Opcodes.ASM9);
   }
@@ -53,7 +61,7 @@ public class ClassFile extends ClassNode implements AccessFlags {
 
   public static String generateClassEnding() {
     // 0123456789abcdefghijklmnopqrstuvwxyz
-    return Long.toString(System.nanoTime(), 36);
+    return Long.toString(CLASS_ENDING.getAndIncrement() & Long.MAX_VALUE, 36);
   }
 
   public ClassField visitField(int access, String name, String descriptor) {
@@ -70,6 +78,12 @@ public class ClassFile extends ClassNode implements AccessFlags {
       this, access, name, descriptor, signature, value
     );
     this.fields.add(field);
+
+    MemberIndex<FieldNode> index = this.fieldIndex;
+    if (index != null) {
+      index.add(field);
+    }
+
     return field;
   }
 
@@ -83,6 +97,12 @@ public class ClassFile extends ClassNode implements AccessFlags {
       this, access, name, descriptor, signature, exceptions
     );
     this.methods.add(method);
+
+    MemberIndex<MethodNode> index = this.methodIndex;
+    if (index != null) {
+      index.add(method);
+    }
+
     return method;
   }
 
@@ -92,21 +112,48 @@ public class ClassFile extends ClassNode implements AccessFlags {
     return writer.toString();
   }
 
-  public ClassMethod findMethod(String name, String desc) {
+  /**
+   * Forces frames of every method to be recomputed, for code edited in place outside of handlers
+   */
+  public void markMethodsDirty() {
     for (MethodNode method : this.methods) {
-      if ((name == null || method.name.equals(name)) &&
-          (desc == null || method.desc.equals(desc))) {
-        return (ClassMethod) method;
-      }
+      ((ClassMethod) method).markDirty();
     }
+  }
 
-    return null;
+  /**
+   * Drops member indexes, required after members were removed, renamed or reordered in place
+   */
+  public void invalidateIndex() {
+    this.methodIndex = null;
+    this.fieldIndex = null;
   }
 
-  public ClassMethod findMethod(ParsedMethod parsed) {
+  private MemberIndex<MethodNode> methodIndex() {
+    MemberIndex<MethodNode> index = this.methodIndex;
+    if (index == null || !index.isValid(this.methods)) {
+      this.methodIndex = index = new MemberIndex<>(this.methods, method -> method.name, method -> method.desc);
+    }
+
+    return index;
+  }
+
+  private MemberIndex<FieldNode> fieldIndex() {
+    MemberIndex<FieldNode> index = this.fieldIndex;
+    if (index == null || !index.isValid(this.fields)) {
+      this.fieldIndex = index = new MemberIndex<>(this.fields, field -> field.name, field -> field.desc);
+    }
+
+    return index;
+  }
+
+  public ClassMethod findMethod(String name, String desc) {
+    if (name != null) {
+      return (ClassMethod) this.methodIndex().find(this.methods, name, desc);
+    }
+
     for (MethodNode method : this.methods) {
-      if ((parsed.getName() == null || method.name.equals(parsed.getName())) &&
-          (parsed.getDesc() == null || method.desc.equals(parsed.getDesc()))) {
+      if (desc == null || method.desc.equals(desc)) {
         return (ClassMethod) method;
       }
     }
@@ -114,21 +161,25 @@ public class ClassFile extends ClassNode implements AccessFlags {
     return null;
   }
 
+  public ClassMethod findMethod(ParsedMethod parsed) {
+    return this.findMethod(parsed.getName(), parsed.getDesc());
+  }
+
   public ClassField findField(String name, String desc) {
-    for (FieldNode field : this.fields) {
-      if (field.name.equals(name) &&
-          field.desc.equals(desc)) {
-        return (ClassField) field;
-      }
+    if (name == null || desc == null) {
+      return null;
     }
 
-    return null;
+    return (ClassField) this.fieldIndex().find(this.fields, name, desc);
   }
 
   public ClassField findField(ParsedField parsed) {
+    if (parsed.getName() != null) {
+      return (ClassField) this.fieldIndex().find(this.fields, parsed.getName(), parsed.getDesc());
+    }
+
     for (FieldNode field : this.fields) {
-      if ((parsed.getName() == null || field.name.equals(parsed.getName())) &&
-          (parsed.getDesc() == null || field.desc.equals(parsed.getDesc()))) {
+      if (parsed.getDesc() == null || field.desc.equals(parsed.getDesc())) {
         return (ClassField) field;
       }
     }
@@ -171,6 +222,12 @@ public class ClassFile extends ClassNode implements AccessFlags {
     return this.visitMethod(newMethodAccess, name, desc);
   }
 
+  public ClassFile copy() {
+    ClassFile classFile = new ClassFile();
+    this.accept(classFile);
+    return classFile;
+  }
+
   public ClassMethod visitSimpleInitializer() {
     ClassMethod method = this.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V");
     Insns insns = method.getInstructions();
@@ -28,6 +28,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.VarInsnNode;
@@ -37,6 +38,16 @@ import org.objectweb.asm.util.TraceMethodVisitor;
 public class ClassMethod extends MethodNode implements AccessFlags {
   public ClassFile owner;
 
+  // Code state recorded when the method was read together with its frames
+  private InsnList cleanInstructions;
+  private List<TryCatchBlockNode> cleanTryCatchBlocks;
+  private int cleanModifications;
+  private int cleanTryCatchCount;
+
+  // Argument size, cached for the descriptor it was computed from
+  private String sizedDesc;
+  private int descSize;
+
   public ClassMethod(ClassFile owner, int access, String name, String descriptor) {
     this(owner, access, name, descriptor, null, null);
   }
@@ -63,7 +74,12 @@ public class ClassMethod extends MethodNode implements AccessFlags {
   }
 
   public int descSize() {
-    return Type.getArgumentsAndReturnSizes(this.desc) >> 2;
+    if (this.sizedDesc != this.desc) {
+      this.descSize = Type.getArgumentsAndReturnSizes(this.desc) >> 2;
+      this.sizedDesc = this.desc;
+    }
+
+    return this.descSize;
   }
 
   public int newVariable() {
@@ -97,6 +113,30 @@ public class ClassMethod extends MethodNode implements AccessFlags {
         }
       }
     }
+
+    this.getInstructions().invalidateVariables();
+  }
+
+  /**
+   * Marks the current code as original, so its frames can be written without recomputation
+   */
+  public void markClean() {
+    this.cleanInstructions = this.instructions;
+    this.cleanTryCatchBlocks = this.tryCatchBlocks;
+    this.cleanModifications = this.getInstructions().getModifications();
+    this.cleanTryCatchCount = this.tryCatchBlocks == null ? 0 : this.tryCatchBlocks.size();
+  }
+
+  public void markDirty() {
+    this.cleanInstructions = null;
+  }
+
+  public boolean isDirty() {
+    return this.cleanInstructions == null ||
+           this.cleanInstructions != this.instructions ||
+           this.getInstructions().getModifications() != this.cleanModifications ||
+           this.cleanTryCatchBlocks != this.tryCatchBlocks ||
+           (this.tryCatchBlocks == null ? 0 : this.tryCatchBlocks.size()) != this.cleanTryCatchCount;
   }
 
   public void eachAnnotation(Consumer<AnnotationNode> consumer) {
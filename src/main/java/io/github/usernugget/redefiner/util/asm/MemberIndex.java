@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * (name, desc) and name-only index of class members, first member wins like a linear scan
+ * <p>
+ * Member lists and members are public and can change behind the index. Positions are
+ * indexed and checked against the list, a mismatch or a miss falls back to a linear scan
+ * and marks the index stale when that scan finds a member.
+ */
+final class MemberIndex<T> {
+  private final Function<T, String> nameGetter;
+  private final Function<T, String> descGetter;
+
+  private final Map<String, Integer> byKey = new HashMap<>();
+  private final Map<String, Integer> byName = new HashMap<>();
+  private int size;
+  private boolean stale;
+
+  MemberIndex(List<T> members, Function<T, String> nameGetter, Function<T, String> descGetter) {
+    this.nameGetter = nameGetter;
+    this.descGetter = descGetter;
+
+    for (T member : members) {
+      this.add(member);
+    }
+  }
+
+  // Member names can't contain ';', so the key is unambiguous
+  private static String key(String name, String desc) {
+    return name + ';' + desc;
+  }
+
+  void add(T member) {
+    String name = this.nameGetter.apply(member);
+    this.byKey.putIfAbsent(key(name, this.descGetter.apply(member)), this.size);
+    this.byName.putIfAbsent(name, this.size);
+    this.size++;
+  }
+
+  boolean isValid(List<T> members) {
+    return !this.stale && this.size == members.size();
+  }
+
+  T find(List<T> members, String name, String desc) {
+    Integer position = desc == null ? this.byName.get(name) : this.byKey.get(key(name, desc));
+    if (position != null && position < members.size()) {
+      // Members are mutable, a renamed one should not be found by its old name
+      T member = members.get(position);
+      if (this.matches(member, name, desc)) {
+        return member;
+      }
+    }
+
+    for (T candidate : members) {
+      if (this.matches(candidate, name, desc)) {
+        this.stale = true;
+        return candidate;
+      }
+    }
+
+    return null;
+  }
+
+  private boolean matches(T member, String name, String desc) {
+    return name.equals(this.nameGetter.apply(member)) &&
+           (desc == null || desc.equals(this.descGetter.apply(member)));
+  }
+}
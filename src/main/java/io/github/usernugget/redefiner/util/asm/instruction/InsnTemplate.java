@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.instruction;
+
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.Ops;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Method code prepared for repeated insertion
+ * <p>
+ * Every instance gets its own labels and try-catch blocks, locals are remapped while cloning.
+ * This is much cheaper than copying the whole method through a visitor for each insertion.
+ */
+public class InsnTemplate {
+  private final ClassMethod method;
+  private final AbstractInsnNode[] nodes;
+  private final LabelNode[] labels;
+  private final AbstractInsnNode[] variables;
+
+  public InsnTemplate(ClassMethod method) {
+    this.method = method;
+    this.nodes = method.instructions.toArray();
+
+    List<LabelNode> labels = new ArrayList<>();
+    List<AbstractInsnNode> variables = new ArrayList<>();
+    for (AbstractInsnNode node : this.nodes) {
+      if (node instanceof LabelNode) {
+        labels.add((LabelNode) node);
+      } else if (node instanceof VarInsnNode || node instanceof IincInsnNode) {
+        variables.add(node);
+      }
+    }
+
+    this.labels = labels.toArray(new LabelNode[0]);
+    this.variables = variables.toArray(new AbstractInsnNode[0]);
+  }
+
+  public ClassMethod getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Locals used by an instance with the specified remapping, arguments included
+   */
+  public int maxVariable(IntUnaryOperator locals) {
+    int size = this.method.descSize();
+    for (AbstractInsnNode node : this.variables) {
+      int variable = Ops.variableSize(node);
+      int index = node instanceof VarInsnNode ? ((VarInsnNode) node).var : ((IincInsnNode) node).var;
+      size = Math.max(size, variable - index + locals.applyAsInt(index));
+    }
+
+    return size;
+  }
+
+  /**
+   * Clones the code with fresh labels and remapped locals
+   *
+   * @param exit if not null, returns are replaced with jumps to this label
+   */
+  public ClassMethod instantiate(IntUnaryOperator locals, LabelNode exit) {
+    Map<LabelNode, LabelNode> labels = new HashMap<>(this.labels.length * 2);
+    for (LabelNode label : this.labels) {
+      labels.put(label, new LabelNode());
+    }
+
+    ClassMethod instance = new ClassMethod(
+      this.method.owner, this.method.access, this.method.name, this.method.desc
+    );
+
+    Insns code = instance.getInstructions();
+    for (AbstractInsnNode node : this.nodes) {
+      int opcode = node.getOpcode();
+      if (exit != null && opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+        code.add(Ops.jumpOp(Opcodes.GOTO, exit));
+        continue;
+      }
+
+      AbstractInsnNode clone = node.clone(labels);
+      if (clone instanceof VarInsnNode) {
+        VarInsnNode var = (VarInsnNode) clone;
+        var.var = locals.applyAsInt(var.var);
+      } else if (clone instanceof IincInsnNode) {
+        IincInsnNode iinc = (IincInsnNode) clone;
+        iinc.var = locals.applyAsInt(iinc.var);
+      }
+
+      code.add(clone);
+    }
+
+    if (this.method.tryCatchBlocks != null) {
+      instance.tryCatchBlocks = new ArrayList<>(this.method.tryCatchBlocks.size());
+      for (TryCatchBlockNode block : this.method.tryCatchBlocks) {
+        instance.tryCatchBlocks.add(new TryCatchBlockNode(
+          labels.get(block.start), labels.get(block.end),
+          labels.get(block.handler), block.type
+        ));
+      }
+    }
+
+    return instance;
+  }
+}
@@ -33,6 +33,146 @@ import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 public class Insns extends InsnList {
+  // Incremented by every structural change, used to detect untouched methods
+  private int modifications;
+  // Locals used by var instructions, -1 if it has to be recomputed
+  private int variableSize;
+
+  public int getModifications() {
+    return this.modifications;
+  }
+
+  /**
+   * Locals used by var instructions, tracked as instructions are added
+   */
+  public int getVariableSize() {
+    if (this.variableSize < 0) {
+      int size = 0;
+      for (AbstractInsnNode node = this.getFirst(); node != null; node = node.getNext()) {
+        size = Math.max(size, Ops.variableSize(node));
+      }
+
+      this.variableSize = size;
+    }
+
+    return this.variableSize;
+  }
+
+  /**
+   * Must be called after var instructions of this list were changed in place
+   */
+  public void invalidateVariables() {
+    this.variableSize = -1;
+  }
+
+  private void track(AbstractInsnNode node) {
+    if (this.variableSize >= 0) {
+      this.variableSize = Math.max(this.variableSize, Ops.variableSize(node));
+    }
+  }
+
+  private void track(InsnList insnList) {
+    if (this.variableSize >= 0) {
+      if (insnList instanceof Insns) {
+        this.variableSize = Math.max(this.variableSize, ((Insns) insnList).getVariableSize());
+      } else {
+        for (AbstractInsnNode node = insnList.getFirst(); node != null; node = node.getNext()) {
+          this.track(node);
+        }
+      }
+    }
+
+    // Nodes are moved out of the inserted list
+    if (insnList instanceof Insns) {
+      ((Insns) insnList).modifications++;
+      ((Insns) insnList).variableSize = 0;
+    }
+  }
+
+  private void untrack(AbstractInsnNode node) {
+    if (this.variableSize > 0 && Ops.variableSize(node) >= this.variableSize) {
+      this.variableSize = -1;
+    }
+  }
+
+  @Override
+  public void set(AbstractInsnNode oldInsnNode, AbstractInsnNode newInsnNode) {
+    this.modifications++;
+    this.untrack(oldInsnNode);
+    this.track(newInsnNode);
+    super.set(oldInsnNode, newInsnNode);
+  }
+
+  @Override
+  public void add(AbstractInsnNode insnNode) {
+    this.modifications++;
+    this.track(insnNode);
+    super.add(insnNode);
+  }
+
+  @Override
+  public void add(InsnList insnList) {
+    this.modifications++;
+    this.track(insnList);
+    super.add(insnList);
+  }
+
+  @Override
+  public void insert(AbstractInsnNode insnNode) {
+    this.modifications++;
+    this.track(insnNode);
+    super.insert(insnNode);
+  }
+
+  @Override
+  public void insert(InsnList insnList) {
+    this.modifications++;
+    this.track(insnList);
+    super.insert(insnList);
+  }
+
+  @Override
+  public void insert(AbstractInsnNode previousInsn, AbstractInsnNode insnNode) {
+    this.modifications++;
+    this.track(insnNode);
+    super.insert(previousInsn, insnNode);
+  }
+
+  @Override
+  public void insert(AbstractInsnNode previousInsn, InsnList insnList) {
+    this.modifications++;
+    this.track(insnList);
+    super.insert(previousInsn, insnList);
+  }
+
+  @Override
+  public void insertBefore(AbstractInsnNode nextInsn, AbstractInsnNode insnNode) {
+    this.modifications++;
+    this.track(insnNode);
+    super.insertBefore(nextInsn, insnNode);
+  }
+
+  @Override
+  public void insertBefore(AbstractInsnNode nextInsn, InsnList insnList) {
+    this.modifications++;
+    this.track(insnList);
+    super.insertBefore(nextInsn, insnList);
+  }
+
+  @Override
+  public void remove(AbstractInsnNode insnNode) {
+    this.modifications++;
+    this.untrack(insnNode);
+    super.remove(insnNode);
+  }
+
+  @Override
+  public void clear() {
+    this.modifications++;
+    this.variableSize = 0;
+    super.clear();
+  }
+
   protected <T extends AbstractInsnNode> T addInternal(T node) {
     assert !this.contains(node);
 
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Type hierarchy index used to compute stack map frames
+ * <p>
+ * Headers are parsed from class resources, so answering a supertype query doesn't load
+ * or initialize classes. Reflection is only used for types without a readable resource.
+ * Entries are kept per classloader, which is weakly referenced.
+ */
+public class ClassHierarchy {
+  public static final String OBJECT = "java/lang/Object";
+
+  public static final class TypeInfo {
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final boolean isInterface;
+
+    public TypeInfo(String name, String superName, String[] interfaces, boolean isInterface) {
+      this.name = name;
+      this.superName = superName;
+      this.interfaces = interfaces == null ? new String[0] : interfaces;
+      this.isInterface = isInterface;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public String getSuperName() {
+      return this.superName;
+    }
+
+    public String[] getInterfaces() {
+      return this.interfaces;
+    }
+
+    public boolean isInterface() {
+      return this.isInterface;
+    }
+  }
+
+  private final Map<ClassLoader, Map<String, TypeInfo>> loaders = new WeakHashMap<>();
+  private final Map<String, TypeInfo> bootstrap = new ConcurrentHashMap<>();
+
+  public String getCommonSuperClass(String type1, String type2, ClassLoader classLoader) {
+    return this.getCommonSuperClass(type1, type2, classLoader, null);
+  }
+
+  /**
+   * Same contract as {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)}
+   *
+   * @param current header of the class being written, it may not be loadable yet
+   */
+  public String getCommonSuperClass(String type1, String type2, ClassLoader classLoader, TypeInfo current) {
+    if (type1.equals(type2)) {
+      return type1;
+    }
+
+    if (this.isAssignableFrom(type1, type2, classLoader, current)) {
+      return type1;
+    }
+
+    if (this.isAssignableFrom(type2, type1, classLoader, current)) {
+      return type2;
+    }
+
+    if (this.getInfo(type1, classLoader, current).isInterface() ||
+        this.getInfo(type2, classLoader, current).isInterface()) {
+      return OBJECT;
+    }
+
+    String superName = type1;
+    do {
+      superName = this.getInfo(superName, classLoader, current).getSuperName();
+      if (superName == null) {
+        return OBJECT;
+      }
+    } while (!this.isAssignableFrom(superName, type2, classLoader, current));
+
+    return superName;
+  }
+
+  public boolean isAssignableFrom(String type, String subType, ClassLoader classLoader, TypeInfo current) {
+    if (type.equals(OBJECT)) {
+      return true;
+    }
+
+    Set<String> visited = new HashSet<>();
+    Deque<String> queue = new ArrayDeque<>();
+    queue.add(subType);
+
+    String name;
+    while ((name = queue.poll()) != null) {
+      if (name.equals(type)) {
+        return true;
+      }
+
+      if (!visited.add(name)) {
+        continue;
+      }
+
+      TypeInfo info = this.getInfo(name, classLoader, current);
+      if (info.getSuperName() != null) {
+        queue.add(info.getSuperName());
+      }
+
+      for (String interfaceName : info.getInterfaces()) {
+        queue.add(interfaceName);
+      }
+    }
+
+    return false;
+  }
+
+  public TypeInfo getInfo(String name, ClassLoader classLoader, TypeInfo current) {
+    if (current != null && current.getName().equals(name)) {
+      return current;
+    }
+
+    Map<String, TypeInfo> types = this.getTypes(classLoader);
+    TypeInfo info = types.get(name);
+    if (info == null) {
+      info = this.readInfo(name, classLoader);
+      types.putIfAbsent(name, info);
+    }
+
+    return info;
+  }
+
+  private Map<String, TypeInfo> getTypes(ClassLoader classLoader) {
+    if (classLoader == null) {
+      return this.bootstrap;
+    }
+
+    synchronized (this.loaders) {
+      return this.loaders.computeIfAbsent(classLoader, key -> new ConcurrentHashMap<>());
+    }
+  }
+
+  protected TypeInfo readInfo(String name, ClassLoader classLoader) {
+    ClassLoader resourceLoader = classLoader == null
+      ? ClassLoader.getPlatformClassLoader()
+      : classLoader;
+
+    try (InputStream in = resourceLoader.getResourceAsStream(name + ".class")) {
+      if (in != null) {
+        ClassReader reader = new ClassReader(in);
+        return new TypeInfo(
+          name, reader.getSuperName(), reader.getInterfaces(),
+          (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0
+        );
+      }
+    } catch (IOException | IllegalArgumentException ignored) {
+      // Unreadable resource, resolve the type through reflection
+    }
+
+    return this.loadInfo(name, classLoader);
+  }
+
+  protected TypeInfo loadInfo(String name, ClassLoader classLoader) {
+    Class<?> klass;
+    try {
+      klass = Class.forName(name.replace('/', '.'), false, classLoader);
+    } catch (ClassNotFoundException | LinkageError e) {
+      throw new TypeNotPresentException(name, e);
+    }
+
+    Class<?>[] interfaces = klass.getInterfaces();
+    String[] interfaceNames = new String[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceNames[i] = Type.getInternalName(interfaces[i]);
+    }
+
+    Class<?> superClass = klass.getSuperclass();
+    return new TypeInfo(
+      name, superClass == null ? null : Type.getInternalName(superClass),
+      interfaceNames, klass.isInterface()
+    );
+  }
+
+  public void clear() {
+    synchronized (this.loaders) {
+      this.loaders.clear();
+    }
+
+    this.bootstrap.clear();
+  }
+}
@@ -20,15 +20,26 @@ import io.github.usernugget.redefiner.ClassRedefiner;
 import io.github.usernugget.redefiner.agent.AbstractAgent;
 import io.github.usernugget.redefiner.util.JavaInternals;
 import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 public class ClassSerializer {
   private ClassRedefiner redefiner;
+  private final ClassHierarchy hierarchy = new ClassHierarchy();
 
   public ClassSerializer(ClassRedefiner redefiner) {
     this.redefiner = redefiner;
@@ -40,6 +51,35 @@ public class ClassSerializer {
       return agent.dumpClass(klass);
     }
 
+    return this.readResource(klass);
+  }
+
+  public byte[][] dumpClasses(Class<?>... klasses) throws IOException {
+    AbstractAgent agent = this.redefiner.getAgent();
+
+    byte[][] classData = new byte[klasses.length][];
+    List<Class<?>> accessible = new ArrayList<>(klasses.length);
+    for (int i = 0; i < klasses.length; i++) {
+      if (agent.isAccessible(klasses[i])) {
+        accessible.add(klasses[i]);
+      } else {
+        classData[i] = this.readResource(klasses[i]);
+      }
+    }
+
+    if (!accessible.isEmpty()) {
+      byte[][] dumped = agent.dumpClasses(accessible.toArray(new Class<?>[0]));
+      for (int i = 0, index = 0; i < klasses.length; i++) {
+        if (classData[i] == null) {
+          classData[i] = dumped[index++];
+        }
+      }
+    }
+
+    return classData;
+  }
+
+  protected byte[] readResource(Class<?> klass) throws IOException {
     ClassLoader classLoader = klass.getClassLoader();
     if (classLoader == null) {
       classLoader = ClassLoader.getPlatformClassLoader();
@@ -63,6 +103,17 @@ public class ClassSerializer {
     return readClass(dumpClass(klass), parseOptions);
   }
 
+  public ClassFile[] readClasses(int parseOptions, Class<?>... klasses) throws IOException {
+    byte[][] classData = dumpClasses(klasses);
+
+    ClassFile[] classFiles = new ClassFile[klasses.length];
+    for (int i = 0; i < classData.length; i++) {
+      classFiles[i] = readClass(classData[i], parseOptions);
+    }
+
+    return classFiles;
+  }
+
   public ClassFile readClass(byte[] classBytes, int parseOptions) {
     return readClass(new ClassReader(classBytes), parseOptions);
   }
@@ -74,14 +125,86 @@ public class ClassSerializer {
   public ClassFile readClass(ClassReader classReader, int parseOptions) {
     ClassFile classFile = new ClassFile();
     classReader.accept(classFile, parseOptions);
+
+    if ((parseOptions & (ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES)) == 0) {
+      for (MethodNode method : classFile.methods) {
+        ((ClassMethod) method).markClean();
+      }
+    }
+
     return classFile;
   }
 
   public byte[] writeClass(ClassFile classFile, ClassLoader classLoader, int writeOptions) {
-    return writeClass(classFile, new CustomClassWriter(writeOptions, classLoader));
+    return writeClass(classFile, new CustomClassWriter(writeOptions, classLoader, this.hierarchy));
+  }
+
+  /**
+   * Writes a class computing frames only for dirty methods, frames of other methods are copied
+   * <p>
+   * The class should be read without {@link ClassReader#SKIP_FRAMES}.
+   */
+  public byte[] writeClassIncremental(ClassFile classFile, ClassLoader classLoader) {
+    List<ClassMethod> dirty = new ArrayList<>();
+    for (MethodNode method : classFile.methods) {
+      if (((ClassMethod) method).isDirty()) {
+        dirty.add((ClassMethod) method);
+      }
+    }
+
+    // Frames don't exist before Java 6, and a single pass is cheaper if nothing can be copied
+    if ((classFile.version & 0xFFFF) < Opcodes.V1_6 || dirty.size() == classFile.methods.size()) {
+      return writeClass(classFile, classLoader, ClassWriter.COMPUTE_FRAMES);
+    }
+
+    CustomClassWriter writer = new CustomClassWriter(0, classLoader, this.hierarchy);
+    writer.setCurrentClass(classFile);
+    if (dirty.isEmpty()) {
+      return writeClass(classFile, writer);
+    }
+
+    // Compute frames of dirty methods in a class with the same header
+    CustomClassWriter dirtyWriter = new CustomClassWriter(ClassWriter.COMPUTE_FRAMES, classLoader, this.hierarchy);
+    dirtyWriter.setCurrentClass(classFile);
+    dirtyWriter.visit(
+      classFile.version, classFile.access, classFile.name, classFile.signature,
+      classFile.superName, classFile.interfaces.toArray(new String[0])
+    );
+    for (ClassMethod method : dirty) {
+      method.accept(dirtyWriter);
+    }
+    dirtyWriter.visitEnd();
+
+    ClassNode computed = new ClassNode();
+    new ClassReader(dirtyWriter.toByteArray()).accept(computed, 0);
+
+    Map<String, MethodNode> replacements = new HashMap<>();
+    for (MethodNode method : computed.methods) {
+      replacements.put(method.name + method.desc, method);
+    }
+
+    classFile.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                       String signature, String[] exceptions) {
+        MethodNode replacement = replacements.get(name + descriptor);
+        if (replacement != null) {
+          replacement.accept(this.cv);
+          return null;
+        }
+
+        return super.visitMethod(access, name, descriptor, signature, exceptions);
+      }
+    });
+
+    return writer.toByteArray();
   }
 
   public byte[] writeClass(ClassFile classFile, ClassWriter writer) {
+    if (writer instanceof CustomClassWriter) {
+      ((CustomClassWriter) writer).setCurrentClass(classFile);
+    }
+
     classFile.accept(writer);
     return writer.toByteArray();
   }
@@ -92,14 +215,43 @@ public class ClassSerializer {
     );
   }
 
+  public ClassHierarchy getHierarchy() {
+    return this.hierarchy;
+  }
+
   public static class CustomClassWriter extends ClassWriter {
     protected ClassLoader classLoader;
+    protected final ClassHierarchy hierarchy;
+    protected ClassHierarchy.TypeInfo currentClass;
 
     public CustomClassWriter(int flags, ClassLoader classLoader) {
+      this(flags, classLoader, null);
+    }
+
+    public CustomClassWriter(int flags, ClassLoader classLoader, ClassHierarchy hierarchy) {
       super(flags);
       this.classLoader = Objects.requireNonNullElse(
         classLoader, ClassLoader.getPlatformClassLoader()
       );
+      this.hierarchy = hierarchy;
+    }
+
+    public void setCurrentClass(ClassFile classFile) {
+      // The written class may be new or differ from its resource
+      this.currentClass = new ClassHierarchy.TypeInfo(
+        classFile.name, classFile.superName,
+        classFile.interfaces.toArray(new String[0]),
+        (classFile.access & Opcodes.ACC_INTERFACE) != 0
+      );
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+      if (this.hierarchy == null) {
+        return super.getCommonSuperClass(type1, type2);
+      }
+
+      return this.hierarchy.getCommonSuperClass(type1, type2, this.classLoader, this.currentClass);
     }
 
     @Override
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.io;
+
+import io.github.usernugget.redefiner.util.asm.ClassField;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import java.util.ArrayList;
+import java.util.List;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Names, descriptors and access flags of a class and its members, without code or attributes
+ * <p>
+ * Strings are interned and members are kept in flat arrays with an open addressing index.
+ * {@link ClassMethod} and {@link ClassField} objects are created on lookup and reused,
+ * their owner is a {@link ClassFile} with the header of this class only.
+ */
+public final class ClassStructure {
+  private final int access;
+  private final String name;
+  private final String superName;
+  private final String[] interfaces;
+
+  private final Members methods;
+  private final Members fields;
+
+  private ClassFile skeleton;
+  private ClassMethod[] methodNodes;
+  private ClassField[] fieldNodes;
+
+  private ClassStructure(
+    int access, String name, String superName, String[] interfaces,
+    Members methods, Members fields
+  ) {
+    this.access = access;
+    this.name = name;
+    this.superName = superName;
+    this.interfaces = interfaces;
+    this.methods = methods;
+    this.fields = fields;
+  }
+
+  public static ClassStructure read(byte[] classData) {
+    return read(new ClassReader(classData));
+  }
+
+  public static ClassStructure read(ClassReader classReader) {
+    StructureVisitor visitor = new StructureVisitor();
+    classReader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return visitor.build();
+  }
+
+  public int getAccess() {
+    return this.access;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public String getSuperName() {
+    return this.superName;
+  }
+
+  public String[] getInterfaces() {
+    return this.interfaces.clone();
+  }
+
+  public int getMethodCount() {
+    return this.methods.size();
+  }
+
+  public int getFieldCount() {
+    return this.fields.size();
+  }
+
+  public ClassMethod findMethod(String name, String desc) {
+    int index = this.methods.indexOf(name, desc);
+    if (index < 0) {
+      return null;
+    }
+
+    synchronized (this) {
+      if (this.methodNodes == null) {
+        this.methodNodes = new ClassMethod[this.methods.size()];
+      }
+
+      ClassMethod method = this.methodNodes[index];
+      if (method == null) {
+        this.methodNodes[index] = method = new ClassMethod(
+          this.skeleton(), this.methods.access[index],
+          this.methods.names[index], this.methods.descs[index]
+        );
+      }
+
+      return method;
+    }
+  }
+
+  public ClassField findField(String name, String desc) {
+    int index = this.fields.indexOf(name, desc);
+    if (index < 0) {
+      return null;
+    }
+
+    synchronized (this) {
+      if (this.fieldNodes == null) {
+        this.fieldNodes = new ClassField[this.fields.size()];
+      }
+
+      ClassField field = this.fieldNodes[index];
+      if (field == null) {
+        this.fieldNodes[index] = field = new ClassField(
+          this.skeleton(), this.fields.access[index],
+          this.fields.names[index], this.fields.descs[index]
+        );
+      }
+
+      return field;
+    }
+  }
+
+  // Guarded by this
+  private ClassFile skeleton() {
+    if (this.skeleton == null) {
+      this.skeleton = new ClassFile(this.access, this.name, this.superName, this.interfaces);
+    }
+
+    return this.skeleton;
+  }
+
+  private static final class Members {
+    private final String[] names;
+    private final String[] descs;
+    private final int[] access;
+    // Index + 1 of a member, 0 is an empty slot
+    private final int[] table;
+
+    public Members(List<String> names, List<String> descs, List<Integer> access) {
+      int size = names.size();
+      this.names = names.toArray(new String[0]);
+      this.descs = descs.toArray(new String[0]);
+      this.access = new int[size];
+      for (int i = 0; i < size; i++) {
+        this.access[i] = access.get(i);
+      }
+
+      this.table = new int[Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1];
+      int mask = this.table.length - 1;
+      for (int i = 0; i < size; i++) {
+        int slot = hash(this.names[i], this.descs[i]) & mask;
+        while (this.table[slot] != 0) {
+          // Keep the first declared member on duplicates
+          if (this.names[this.table[slot] - 1].equals(this.names[i]) &&
+              this.descs[this.table[slot] - 1].equals(this.descs[i])) {
+            break;
+          }
+
+          slot = (slot + 1) & mask;
+        }
+
+        if (this.table[slot] == 0) {
+          this.table[slot] = i + 1;
+        }
+      }
+    }
+
+    private static int hash(String name, String desc) {
+      int hash = name.hashCode() * 31 + desc.hashCode();
+      return hash ^ (hash >>> 16);
+    }
+
+    public int size() {
+      return this.names.length;
+    }
+
+    public int indexOf(String name, String desc) {
+      int mask = this.table.length - 1;
+      int slot = hash(name, desc) & mask;
+
+      int entry;
+      while ((entry = this.table[slot]) != 0) {
+        if (this.names[entry - 1].equals(name) && this.descs[entry - 1].equals(desc)) {
+          return entry - 1;
+        }
+
+        slot = (slot + 1) & mask;
+      }
+
+      return -1;
+    }
+  }
+
+  private static final class StructureVisitor extends ClassVisitor {
+    private int access;
+    private String name;
+    private String superName;
+    private String[] interfaces;
+
+    private final List<String> methodNames = new ArrayList<>();
+    private final List<String> methodDescs = new ArrayList<>();
+    private final List<Integer> methodAccess = new ArrayList<>();
+
+    private final List<String> fieldNames = new ArrayList<>();
+    private final List<String> fieldDescs = new ArrayList<>();
+    private final List<Integer> fieldAccess = new ArrayList<>();
+
+    public StructureVisitor() {
+      super(Opcodes.ASM9);
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+                      String superName, String[] interfaces) {
+      this.access = access;
+      this.name = name.intern();
+      this.superName = superName == null ? null : superName.intern();
+      this.interfaces = new String[interfaces == null ? 0 : interfaces.length];
+      for (int i = 0; i < this.interfaces.length; i++) {
+        this.interfaces[i] = interfaces[i].intern();
+      }
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor,
+                                   String signature, Object value) {
+      this.fieldNames.add(name.intern());
+      this.fieldDescs.add(descriptor.intern());
+      this.fieldAccess.add(access);
+      return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                     String signature, String[] exceptions) {
+      this.methodNames.add(name.intern());
+      this.methodDescs.add(descriptor.intern());
+      this.methodAccess.add(access);
+      return null;
+    }
+
+    public ClassStructure build() {
+      return new ClassStructure(
+        this.access, this.name, this.superName, this.interfaces,
+        new Members(this.methodNames, this.methodDescs, this.methodAccess),
+        new Members(this.fieldNames, this.fieldDescs, this.fieldAccess)
+      );
+    }
+  }
+}
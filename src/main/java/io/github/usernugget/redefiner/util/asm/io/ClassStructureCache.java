@@ -16,29 +16,157 @@
 
 package io.github.usernugget.redefiner.util.asm.io;
 
-import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.ClassRedefiner;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import org.objectweb.asm.ClassReader;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
+/**
+ * {@link ClassStructure} of classes, names and access flags of members without code
+ * <p>
+ * Classes are weakly referenced, so cached structures don't keep classloaders alive.
+ * The least recently used structure is evicted when the cache is full.
+ */
 public class ClassStructureCache {
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  private static final class ClassKey extends WeakReference<Class<?>> {
+    private final int hash;
+
+    public ClassKey(Class<?> klass, ReferenceQueue<Class<?>> queue) {
+      super(klass, queue);
+      this.hash = System.identityHashCode(klass);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ClassKey)) return false;
+
+      Class<?> klass = this.get();
+      return klass != null && klass == ((ClassKey) o).get();
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+
+  private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+  private final Map<ClassKey, ClassStructure> cache;
+  private final Supplier<ClassSerializer> serializer;
+  private final int maximumSize;
 
-  private final Map<Class<?>, ClassFile> cache = new ConcurrentHashMap<>();
-  private final ClassSerializer serializer;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
 
   public ClassStructureCache(ClassSerializer serializer) {
+    this(() -> serializer, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public ClassStructureCache(ClassRedefiner redefiner) {
+    this(redefiner, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  public ClassStructureCache(ClassRedefiner redefiner, int maximumSize) {
+    this(redefiner::getClassSerializer, maximumSize);
+  }
+
+  private ClassStructureCache(Supplier<ClassSerializer> serializer, int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalStateException("maximumSize should be >0");
+    }
+
     this.serializer = serializer;
+    this.maximumSize = maximumSize;
+    this.cache = new LinkedHashMap<ClassKey, ClassStructure>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ClassKey, ClassStructure> eldest) {
+        if (this.size() > ClassStructureCache.this.maximumSize) {
+          ClassStructureCache.this.evictions.increment();
+          return true;
+        }
+
+        return false;
+      }
+    };
   }
 
-  public ClassFile readCached(Class<?> klass) throws IOException {
-    ClassFile cached = this.cache.get(klass);
+  public ClassStructure readCached(Class<?> klass) throws IOException {
+    ClassKey key = new ClassKey(klass, null);
+
+    ClassStructure cached;
+    synchronized (this.cache) {
+      this.expungeStaleEntries();
+      cached = this.cache.get(key);
+    }
+
     if (cached != null) {
+      this.hits.increment();
       return cached;
     }
 
-    cached = this.serializer.readClass(klass, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG);
-    this.cache.put(klass, cached);
-    return cached;
+    this.misses.increment();
+
+    // Read outside of the lock, a concurrent read of the same class keeps the first result
+    ClassStructure structure = ClassStructure.read(this.serializer.get().dumpClass(klass));
+
+    synchronized (this.cache) {
+      cached = this.cache.putIfAbsent(new ClassKey(klass, this.queue), structure);
+    }
+
+    return cached != null ? cached : structure;
+  }
+
+  public boolean invalidate(Class<?> klass) {
+    synchronized (this.cache) {
+      return this.cache.remove(new ClassKey(klass, null)) != null;
+    }
+  }
+
+  public void clear() {
+    synchronized (this.cache) {
+      this.cache.clear();
+      this.expungeStaleEntries();
+    }
+  }
+
+  public int size() {
+    synchronized (this.cache) {
+      this.expungeStaleEntries();
+      return this.cache.size();
+    }
+  }
+
+  public int getMaximumSize() {
+    return this.maximumSize;
+  }
+
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  // Guarded by the cache lock
+  private void expungeStaleEntries() {
+    Reference<? extends Class<?>> reference;
+    while ((reference = this.queue.poll()) != null) {
+      // Cleared keys are still equal to themselves and keep their hash
+      this.cache.remove(reference);
+    }
   }
 }
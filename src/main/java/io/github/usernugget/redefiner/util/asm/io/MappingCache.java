@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.io;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Parsed mapping classes, kept as templates
+ * <p>
+ * Handlers mutate the mapping they receive, so every read returns a copy of the template.
+ * Members of the copy are sorted by handler priority, highest first.
+ * Mapping classes are weakly referenced and can be unloaded together with their classloader.
+ */
+public class MappingCache {
+  private final Map<Class<?>, MappingTemplate> templates = new WeakHashMap<>();
+  private final ClassRedefiner redefiner;
+
+  public MappingCache(ClassRedefiner redefiner) {
+    this.redefiner = redefiner;
+  }
+
+  public ClassFile readMapping(Class<?> mapping) throws IOException {
+    return this.readMappings(mapping)[0];
+  }
+
+  public ClassFile[] readMappings(Class<?>... mappings) throws IOException {
+    MappingTemplate[] templates = new MappingTemplate[mappings.length];
+    List<Class<?>> missing = new ArrayList<>();
+
+    synchronized (this.templates) {
+      for (int i = 0; i < mappings.length; i++) {
+        templates[i] = this.templates.get(mappings[i]);
+        if (templates[i] == null) {
+          missing.add(mappings[i]);
+        }
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      ClassSerializer serializer = this.redefiner.getClassSerializer();
+      byte[][] classData = serializer.dumpClasses(missing.toArray(new Class<?>[0]));
+
+      MappingTemplate[] parsed = new MappingTemplate[classData.length];
+      for (int i = 0; i < parsed.length; i++) {
+        parsed[i] = new MappingTemplate(
+          serializer.readClass(classData[i], ClassReader.SKIP_FRAMES), digest(classData[i])
+        );
+      }
+
+      synchronized (this.templates) {
+        for (int i = 0; i < parsed.length; i++) {
+          this.templates.putIfAbsent(missing.get(i), parsed[i]);
+        }
+
+        for (int i = 0; i < mappings.length; i++) {
+          if (templates[i] == null) {
+            templates[i] = this.templates.get(mappings[i]);
+          }
+        }
+      }
+    }
+
+    ClassFile[] copies = new ClassFile[mappings.length];
+    for (int i = 0; i < templates.length; i++) {
+      copies[i] = templates[i].copy(this.redefiner.getHandlerTypes());
+    }
+
+    return copies;
+  }
+
+  /**
+   * SHA-256 of the mapping bytes, null if the mapping wasn't read yet
+   */
+  public byte[] getDigest(Class<?> mapping) {
+    synchronized (this.templates) {
+      MappingTemplate template = this.templates.get(mapping);
+      return template != null ? template.getDigest() : null;
+    }
+  }
+
+  private static byte[] digest(byte[] classData) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(classData);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  public boolean invalidate(Class<?> mapping) {
+    synchronized (this.templates) {
+      return this.templates.remove(mapping) != null;
+    }
+  }
+
+  public void clear() {
+    synchronized (this.templates) {
+      this.templates.clear();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.io;
+
+import io.github.usernugget.redefiner.handlers.HandlerTypes;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import java.util.Arrays;
+import java.util.List;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Parsed mapping with members sorted by handler priority, highest first
+ * <p>
+ * Members are sorted once per handler registry version, copies keep the order.
+ */
+final class MappingTemplate {
+  private final ClassFile classFile;
+  private final byte[] digest;
+  private int handlerVersion = -1;
+
+  MappingTemplate(ClassFile classFile, byte[] digest) {
+    this.classFile = classFile;
+    this.digest = digest;
+  }
+
+  // SHA-256 of the mapping bytes
+  byte[] getDigest() {
+    return this.digest;
+  }
+
+  // Visiting resets labels of the template, so copies of the same template can't overlap
+  synchronized ClassFile copy(HandlerTypes handlerTypes) {
+    int version = handlerTypes.getVersion();
+    if (this.handlerVersion != version) {
+      this.sortMembers(handlerTypes);
+      this.handlerVersion = version;
+    }
+
+    return this.classFile.copy();
+  }
+
+  private void sortMembers(HandlerTypes handlerTypes) {
+    List<MethodNode> methods = this.classFile.methods;
+    long[] methodKeys = new long[methods.size()];
+    for (int i = 0; i < methodKeys.length; i++) {
+      MethodNode method = methods.get(i);
+      methodKeys[i] = key(i,
+        priority(handlerTypes, method.visibleAnnotations) +
+        priority(handlerTypes, method.invisibleAnnotations)
+      );
+    }
+
+    List<FieldNode> fields = this.classFile.fields;
+    long[] fieldKeys = new long[fields.size()];
+    for (int i = 0; i < fieldKeys.length; i++) {
+      FieldNode field = fields.get(i);
+      fieldKeys[i] = key(i,
+        priority(handlerTypes, field.visibleAnnotations) +
+        priority(handlerTypes, field.invisibleAnnotations)
+      );
+    }
+
+    reorder(methods, methodKeys);
+    reorder(fields, fieldKeys);
+    this.classFile.invalidateIndex();
+  }
+
+  private static int priority(HandlerTypes handlerTypes, List<AnnotationNode> annotations) {
+    if (annotations == null) {
+      return 0;
+    }
+
+    int priority = 0;
+    for (AnnotationNode annotation : annotations) {
+      priority += handlerTypes.getPriority(annotation);
+    }
+
+    return priority;
+  }
+
+  // Ascending order of (-priority, index) is a stable descending sort by priority
+  private static long key(int index, int priority) {
+    return (long) -priority << 32 | index;
+  }
+
+  private static <T> void reorder(List<T> members, long[] keys) {
+    Arrays.sort(keys);
+
+    Object[] original = members.toArray();
+    for (int i = 0; i < keys.length; i++) {
+      @SuppressWarnings("unchecked")
+      T member = (T) original[(int) keys[i]];
+      members.set(i, member);
+    }
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.redefiner.util.asm.io;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.handlers.HandlerTypes;
+import io.github.usernugget.redefiner.handlers.HandlerTypes.HandlerDesc;
+import io.github.usernugget.redefiner.util.JavaInternals;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Transformed class bytes persisted across JVM restarts
+ * <p>
+ * Results are keyed by SHA-256 of the original class bytes, the mapping bytes, the
+ * library version and the registered handlers, including the bytes of their classes.
+ * The file is append-only: a header followed by records of key, length, CRC32 and
+ * class bytes. It is memory-mapped for reads. A torn record at the end of the file
+ * is dropped when the cache is opened.
+ * <p>
+ * The file may be shared between processes. Appends hold an exclusive file lock and
+ * first index records appended by other processes, reads hold a shared one and check
+ * the key and CRC32 of the record, so a record that was replaced is a miss. File locks
+ * are held by the whole JVM, so one process should open a file only once.
+ * <p>
+ * Keys don't cover other classes on the classpath, so the file should be discarded
+ * when superclasses of transformed classes change.
+ */
+public class TransformCache implements Closeable {
+  private static final int MAGIC = 0x52444643;
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 8;
+  private static final int KEY_SIZE = 32;
+  private static final int RECORD_HEADER_SIZE = KEY_SIZE + 8;
+
+  private final FileChannel channel;
+  // Key -> offset of the record
+  private final Map<ByteBuffer, Long> index = new HashMap<>();
+  private MappedByteBuffer mapped;
+  private long size;
+
+  private HandlerTypes fingerprintTypes;
+  private int fingerprintVersion;
+  private byte[] fingerprint;
+
+  public TransformCache(Path path) throws IOException {
+    this.channel = FileChannel.open(
+      path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+    );
+
+    try {
+      this.load();
+    } catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    }
+  }
+
+  private void load() throws IOException {
+    try (FileLock ignored = this.channel.lock()) {
+      this.sync();
+    }
+  }
+
+  // Indexes records appended since the last call, including ones of other processes.
+  // Requires the exclusive file lock
+  private void sync() throws IOException {
+    long fileSize = this.channel.size();
+    if (fileSize < this.size) {
+      // Reset by another process, indexed records are gone
+      this.unmap();
+      this.index.clear();
+      this.size = 0;
+    }
+
+    if (this.size != 0 && fileSize == this.size) {
+      return;
+    }
+
+    this.unmap();
+    if (fileSize >= HEADER_SIZE) {
+      this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+    }
+
+    if (this.mapped == null || this.mapped.getInt(0) != MAGIC || this.mapped.getInt(4) != VERSION) {
+      this.reset();
+      return;
+    }
+
+    long offset = Math.max(this.size, HEADER_SIZE);
+    while (offset + RECORD_HEADER_SIZE <= fileSize) {
+      int length = this.mapped.getInt((int) offset + KEY_SIZE);
+      long end = offset + RECORD_HEADER_SIZE + length;
+      if (length < 0 || end > fileSize || this.checksum(offset, length) != this.mapped.getInt((int) offset + KEY_SIZE + 4)) {
+        break;
+      }
+
+      this.index.putIfAbsent(this.readKey(offset), offset);
+      offset = end;
+    }
+
+    this.size = offset;
+    if (offset != fileSize) {
+      this.unmap();
+      this.channel.truncate(offset);
+    }
+  }
+
+  private void reset() throws IOException {
+    this.unmap();
+    this.index.clear();
+    this.channel.truncate(0);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+    this.channel.write(header.flip(), 0);
+    this.size = HEADER_SIZE;
+  }
+
+  /**
+   * Key of a single mapping applied to a class
+   *
+   * @param mappingDigest see MappingCache::getDigest
+   */
+  public byte[] createKey(byte[] classData, byte[] mappingDigest, HandlerTypes handlerTypes) {
+    MessageDigest digest = newDigest();
+    digest.update(classData);
+    digest.update(mappingDigest);
+    digest.update(this.fingerprint(handlerTypes));
+    return digest.digest();
+  }
+
+  // Handlers are identified by their priority, annotation and class bytes,
+  // the library by its version and the bytes of ClassRedefiner for unversioned builds
+  private synchronized byte[] fingerprint(HandlerTypes handlerTypes) {
+    int version = handlerTypes.getVersion();
+    if (this.fingerprintTypes != handlerTypes || this.fingerprintVersion != version) {
+      MessageDigest digest = newDigest();
+      digest.update((ClassRedefiner.class.getPackage().getImplementationVersion() + "\n")
+        .getBytes(StandardCharsets.UTF_8));
+      updateClass(digest, ClassRedefiner.class);
+
+      for (HandlerDesc handlerDesc : handlerTypes.getValues().values()) {
+        Class<?> handlerClass = handlerDesc.handler.getClass();
+        digest.update((handlerDesc.priority + " " + handlerDesc.desc + " " + handlerClass.getName() + "\n")
+          .getBytes(StandardCharsets.UTF_8));
+        updateClass(digest, handlerClass);
+      }
+
+      this.fingerprintTypes = handlerTypes;
+      this.fingerprintVersion = version;
+      this.fingerprint = digest.digest();
+    }
+
+    return this.fingerprint;
+  }
+
+  // Classes without a class file resource, like lambdas, are identified by name only
+  private static void updateClass(MessageDigest digest, Class<?> klass) {
+    String name = klass.getName();
+    try (InputStream in = klass.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+      if (in != null) {
+        digest.update(in.readAllBytes());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to read class " + name, e);
+    }
+  }
+
+  public synchronized byte[] get(byte[] key) {
+    ByteBuffer wrappedKey = ByteBuffer.wrap(key);
+    Long offset = this.index.get(wrappedKey);
+    if (offset == null) {
+      return null;
+    }
+
+    try (FileLock ignored = this.channel.lock(0, Long.MAX_VALUE, true)) {
+      // Another process could have reset the file since the record was indexed
+      if (this.size > this.channel.size()) {
+        this.index.remove(wrappedKey);
+        return null;
+      }
+
+      MappedByteBuffer mapped = this.map();
+      int length = mapped.getInt((int) (offset + KEY_SIZE));
+      if (length < 0 || offset + RECORD_HEADER_SIZE + length > this.size ||
+          !this.readKey(offset).equals(wrappedKey) ||
+          this.checksum(offset, length) != mapped.getInt((int) (offset + KEY_SIZE + 4))) {
+        this.index.remove(wrappedKey);
+        return null;
+      }
+
+      byte[] classData = new byte[length];
+      mapped.duplicate().position((int) (offset + RECORD_HEADER_SIZE)).get(classData);
+      return classData;
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to read transform cache", e);
+    }
+  }
+
+  public synchronized void put(byte[] key, byte[] classData) {
+    if (key.length != KEY_SIZE) {
+      throw new IllegalStateException("invalid key length: " + key.length);
+    }
+
+    ByteBuffer wrappedKey = ByteBuffer.wrap(key.clone());
+    if (this.index.containsKey(wrappedKey)) {
+      return;
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(classData);
+
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE)
+      .put(key).putInt(classData.length).putInt((int) crc.getValue());
+
+    try (FileLock ignored = this.channel.lock()) {
+      // Other processes could have appended records, or put this one already
+      this.sync();
+      if (this.index.containsKey(wrappedKey)) {
+        return;
+      }
+
+      long offset = this.size;
+      ByteBuffer[] record = { header.flip(), ByteBuffer.wrap(classData) };
+
+      this.channel.position(offset);
+      while (record[1].hasRemaining()) {
+        this.channel.write(record);
+      }
+
+      this.size = offset + RECORD_HEADER_SIZE + classData.length;
+      this.index.put(wrappedKey, offset);
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to write transform cache", e);
+    }
+  }
+
+  public synchronized int size() {
+    return this.index.size();
+  }
+
+  // Records appended after the last mapping are mapped on the next read
+  private MappedByteBuffer map() throws IOException {
+    if (this.mapped == null || this.mapped.capacity() < this.size) {
+      this.unmap();
+      this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+    }
+
+    return this.mapped;
+  }
+
+  private void unmap() {
+    if (this.mapped != null) {
+      JavaInternals.UNSAFE.invokeCleaner(this.mapped);
+      this.mapped = null;
+    }
+  }
+
+  private ByteBuffer readKey(long offset) {
+    byte[] key = new byte[KEY_SIZE];
+    this.mapped.duplicate().position((int) offset).get(key);
+    return ByteBuffer.wrap(key);
+  }
+
+  private int checksum(long offset, int length) {
+    CRC32 crc = new CRC32();
+    int start = (int) offset + RECORD_HEADER_SIZE;
+    crc.update(this.mapped.duplicate().position(start).limit(start + length));
+    return (int) crc.getValue();
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.unmap();
+    this.channel.close();
+  }
+}
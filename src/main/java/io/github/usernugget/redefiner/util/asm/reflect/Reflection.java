@@ -23,26 +23,41 @@ import io.github.usernugget.redefiner.util.asm.ClassFile;
 import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 
 public class Reflection {
   private static final Pattern ILLEGAL_NAME_CHARACTERS = Pattern.compile("[.;\\[/<>]");
 
   private static final String CURRENT_CLASS_NAME = Type.getInternalName(Reflection.class);
-  private static final MethodHandle WRAP_CLASS_LOADER;
+  private static final String MAGIC_ACCESSOR_NAME = "jdk/internal/reflect/MagicAccessorImpl";
 
-  static {
+  private static final String BOOTSTRAP_NAME = "$bootstrap";
+  private static final String BOOTSTRAP_DESC = MethodType.methodType(
+    CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class
+  ).toMethodDescriptorString();
+
+  // Null on JDKs without DelegatingClassLoader, only hidden accessors are available there
+  private static final MethodHandle WRAP_CLASS_LOADER = findWrapClassLoader();
+
+  private static MethodHandle findWrapClassLoader() {
     try {
-      WRAP_CLASS_LOADER = JavaInternals.TRUSTED.findConstructor(
+      return JavaInternals.TRUSTED.findConstructor(
         Class.forName(
           "jdk.internal.reflect.DelegatingClassLoader",
           false,
@@ -50,8 +65,8 @@ public class Reflection {
         ),
         MethodType.methodType(void.class, ClassLoader.class)
       );
-    } catch (Throwable throwable) {
-      throw new ExceptionInInitializerError(throwable);
+    } catch (ReflectiveOperationException e) {
+      return null;
     }
   }
 
@@ -72,7 +87,7 @@ public class Reflection {
     this.targetClass = new ClassFile(
       Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL,
       CURRENT_CLASS_NAME + "$ClassGen_" + classId,
-      "jdk/internal/reflect/MagicAccessorImpl", this.targetInterface.name
+      MAGIC_ACCESSOR_NAME, this.targetInterface.name
     );
 
     this.targetClass.visitSimpleInitializer();
@@ -81,6 +96,8 @@ public class Reflection {
       Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
       "IMPL", 'L' + this.targetInterface.name + ';'
     );
+
+    this.visitBootstrap();
   }
 
   public Map<AccessFlags, ClassMethod> getReflections() {
@@ -100,6 +117,10 @@ public class Reflection {
   }
 
   protected ClassLoader wrapClassLoader(ClassLoader classLoader) {
+    if (WRAP_CLASS_LOADER == null) {
+      throw new IllegalStateException("DelegatingClassLoader is not available, " + JavaInternals.getJvmInfo());
+    }
+
     try {
       return (ClassLoader) WRAP_CLASS_LOADER.invoke(classLoader);
     } catch (Throwable e) {
@@ -116,11 +137,14 @@ public class Reflection {
       this.targetInterface, interfaceClassLoader
     );
 
-    Class<?> accessorClass = serializer.defineClass(
-      this.targetClass, wrapClassLoader(accessorClassLoader)
-    );
-
     try {
+      Object accessor = this.defineHiddenAccessor(serializer, accessorClassLoader);
+      if (accessor == null) {
+        accessor = serializer.defineClass(
+          this.targetClass, wrapClassLoader(accessorClassLoader)
+        ).getDeclaredConstructor().newInstance();
+      }
+
       Field field = interfaceClass.getDeclaredField("IMPL");
       if (!Modifier.isStatic(field.getModifiers())) {
         throw new IllegalStateException("(internal) IMPL field should be static");
@@ -133,7 +157,7 @@ public class Reflection {
       JavaInternals.UNSAFE.putObject(
         JavaInternals.UNSAFE.staticFieldBase(field),
         JavaInternals.UNSAFE.staticFieldOffset(field),
-        accessorClass.getDeclaredConstructor().newInstance()
+        accessor
       );
     } catch (InstantiationException | NoSuchFieldException | NoSuchMethodException |
              IllegalAccessException | InvocationTargetException e) {
@@ -141,6 +165,122 @@ public class Reflection {
     }
   }
 
+  /**
+   * Defines the accessor as a hidden class in the classloader of a wrapped member's owner
+   * <p>
+   * Unlike MagicAccessorImpl subclasses, hidden accessors don't need their own classloader
+   * and are unloaded together with the interface holding them. They are only used when every
+   * wrapped member is accessible from the host: all of them are public, or all of them
+   * belong to the host, which the accessor then joins as a nestmate.
+   *
+   * @return accessor instance, null if a hidden accessor can't be used
+   */
+  protected Object defineHiddenAccessor(ClassSerializer serializer, ClassLoader accessorClassLoader) {
+    if (!JavaInternals.supportsHiddenClasses() || accessorClassLoader == null) {
+      return null;
+    }
+
+    Set<String> owners = new LinkedHashSet<>();
+    boolean accessible = true;
+    for (AccessFlags member : this.reflections.keySet()) {
+      ClassFile owner = member instanceof ClassMethod ?
+        ((ClassMethod) member).owner : ((ClassField) member).owner;
+
+      owners.add(owner.name);
+      accessible &= member.isPublic() && (owner.access & Opcodes.ACC_PUBLIC) != 0;
+    }
+
+    boolean nestmate = owners.size() == 1 && !accessible;
+    if (owners.isEmpty() || (!accessible && !nestmate)) {
+      return null;
+    }
+
+    Class<?> host = null;
+    for (String owner : owners) {
+      try {
+        Class<?> klass = Class.forName(owner.replace('/', '.'), false, accessorClassLoader);
+        if (klass.getClassLoader() == accessorClassLoader) {
+          host = klass;
+          break;
+        }
+      } catch (ClassNotFoundException ignored) {
+      }
+    }
+
+    if (host == null) {
+      return null;
+    }
+
+    // Hidden classes must be in the package of their host and can't extend MagicAccessorImpl
+    String hostPackage = Type.getInternalName(host);
+    hostPackage = hostPackage.substring(0, hostPackage.lastIndexOf('/') + 1);
+
+    ClassFile accessor = new ClassFile();
+    this.targetClass.accept(accessor);
+    accessor.name = hostPackage + this.targetClass.name.substring(this.targetClass.name.lastIndexOf('/') + 1);
+    accessor.superName = "java/lang/Object";
+
+    Class<?> accessorClass = JavaInternals.defineHiddenClass(
+      host, serializer.writeClass(accessor, accessorClassLoader, ClassWriter.COMPUTE_FRAMES), nestmate
+    );
+    try {
+      return JavaInternals.TRUSTED.findConstructor(
+        accessorClass, MethodType.methodType(void.class)
+      ).invoke();
+    } catch (Throwable throwable) {
+      throw new IllegalStateException("unable to create hidden accessor", throwable);
+    }
+  }
+
+  // Links a call site to the accessor method of the same name, bound to IMPL
+  protected void visitBootstrap() {
+    ClassMethod bootstrap = this.targetInterface.visitMethod(
+      Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, BOOTSTRAP_NAME, BOOTSTRAP_DESC
+    );
+
+    Insns insns = bootstrap.getInstructions();
+    insns.typeOp(Opcodes.NEW, "java/lang/invoke/ConstantCallSite");
+    insns.op(Opcodes.DUP);
+
+    // Lookup of the interface itself, the caller might not be able to access it
+    insns.methodOp(
+      Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+      "()Ljava/lang/invoke/MethodHandles$Lookup;", false
+    );
+    insns.ldc(Type.getObjectType(this.targetInterface.name));
+    insns.varOp(Opcodes.ALOAD, 1);
+    insns.varOp(Opcodes.ALOAD, 2);
+    insns.methodOp(
+      Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandles$Lookup", "findVirtual",
+      "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;", false
+    );
+
+    insns.fieldGetter(this.implField);
+    insns.methodOp(
+      Opcodes.INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "bindTo",
+      "(Ljava/lang/Object;)Ljava/lang/invoke/MethodHandle;", false
+    );
+
+    insns.methodOp(
+      Opcodes.INVOKESPECIAL, "java/lang/invoke/ConstantCallSite", "<init>",
+      "(Ljava/lang/invoke/MethodHandle;)V", false
+    );
+    insns.op(Opcodes.ARETURN);
+  }
+
+  /**
+   * Calls a wrapper through invokedynamic instead of its static method
+   * <p>
+   * The call site is linked once to the accessor with a constant receiver,
+   * so it can be inlined like a direct call. Requires class version 52 or newer.
+   */
+  public static InvokeDynamicInsnNode invokeDynamic(ClassMethod wrapper) {
+    return new InvokeDynamicInsnNode(
+      wrapper.name + "$WRAPPED", wrapper.desc,
+      new Handle(Opcodes.H_INVOKESTATIC, wrapper.owner.name, BOOTSTRAP_NAME, BOOTSTRAP_DESC, true)
+    );
+  }
+
   public static String escapeName(String name) {
     return ILLEGAL_NAME_CHARACTERS.matcher(name).replaceAll("\\$");
   }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.other;
+
+import io.github.usernugget.redefiner.util.asm.ClassField;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ClassFileIndexTest {
+  @Test
+  void testMemberIndex() {
+    ClassFile classFile = new ClassFile(Opcodes.ACC_PUBLIC, "Tmp");
+
+    ClassMethod first = classFile.visitMethod(Opcodes.ACC_STATIC, "test", "()V");
+    ClassMethod second = classFile.visitMethod(Opcodes.ACC_STATIC, "test", "(I)V");
+    ClassField field = classFile.visitField(Opcodes.ACC_STATIC, "value", "I");
+
+    assertSame(second, classFile.findMethod("test", "(I)V"));
+    assertSame(first, classFile.findMethod("test", null)); // First declared wins
+    assertSame(field, classFile.findField("value", "I"));
+    assertNull(classFile.findMethod("missing", null));
+
+    // Members added after the index was built
+    ClassMethod third = classFile.visitMethod(Opcodes.ACC_STATIC, "other", "()V");
+    assertSame(third, classFile.findMethod("other", "()V"));
+    assertSame(first, classFile.findMethod("test", null));
+
+    // Renamed members are only found by their new name after invalidation
+    third.name = "renamed";
+    assertNull(classFile.findMethod("other", "()V"));
+
+    classFile.invalidateIndex();
+    assertSame(third, classFile.findMethod("renamed", "()V"));
+  }
+
+  @Test
+  void testStaleMemberIndex() {
+    ClassFile classFile = new ClassFile(Opcodes.ACC_PUBLIC, "Tmp");
+
+    ClassMethod first = classFile.visitMethod(Opcodes.ACC_STATIC, "first", "()V");
+    ClassMethod second = classFile.visitMethod(Opcodes.ACC_STATIC, "second", "()V");
+    assertSame(first, classFile.findMethod("first", "()V"));
+
+    // Renamed without invalidation, list size is unchanged
+    second.name = "renamed";
+    assertSame(second, classFile.findMethod("renamed", "()V"));
+    assertSame(second, classFile.findMethod("renamed", null));
+
+    // Replaced in place without invalidation
+    ClassMethod replacement = new ClassMethod(classFile, Opcodes.ACC_STATIC, "replacement", "()V");
+    classFile.methods.set(0, replacement);
+    assertSame(replacement, classFile.findMethod("replacement", "()V"));
+    assertNull(classFile.findMethod("first", "()V"));
+  }
+}
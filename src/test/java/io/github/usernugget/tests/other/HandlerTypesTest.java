@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.other;
+
+import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.HandlerTypes;
+import io.github.usernugget.redefiner.handlers.HandlerTypes.HandlerDesc;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HandlerTypesTest {
+  private static final Handler HANDLER = new Handler() { };
+
+  private static int[] priorities(HandlerDesc[] handlers) {
+    int[] priorities = new int[handlers.length];
+    for (int i = 0; i < handlers.length; i++) {
+      priorities[i] = handlers[i].priority;
+    }
+
+    return priorities;
+  }
+
+  @Test
+  void testDispatch() {
+    HandlerTypes handlerTypes = new HandlerTypes();
+    handlerTypes.add(10, "LA;", HANDLER);
+    handlerTypes.add(20, HandlerTypes.WILDCARD, HANDLER);
+    handlerTypes.add(5, "LB;", HANDLER);
+    handlerTypes.add(1, HandlerTypes.WILDCARD, HANDLER);
+
+    assertEquals("[20, 10, 1]", Arrays.toString(priorities(handlerTypes.getHandlers("LA;"))));
+    assertEquals("[20, 5, 1]", Arrays.toString(priorities(handlerTypes.getHandlers("LB;"))));
+    assertEquals("[20, 1]", Arrays.toString(priorities(handlerTypes.getHandlers("LC;"))));
+
+    // Rebuilt after modification
+    handlerTypes.add(15, "LA;", HANDLER);
+    assertEquals("[20, 15, 10, 1]", Arrays.toString(priorities(handlerTypes.getHandlers("LA;"))));
+
+    handlerTypes.remove(20, handlerTypes.getValues().get(20));
+    assertEquals("[1]", Arrays.toString(priorities(handlerTypes.getHandlers("LC;"))));
+  }
+
+  @Test
+  void testValuesSnapshot() {
+    HandlerTypes handlerTypes = new HandlerTypes();
+    handlerTypes.add(10, "LA;", HANDLER);
+
+    Map<Integer, HandlerDesc> values = handlerTypes.getValues();
+    assertThrows(UnsupportedOperationException.class, () -> values.remove(10));
+
+    handlerTypes.add(20, "LB;", HANDLER);
+    assertEquals(1, values.size());
+    assertEquals(2, handlerTypes.getValues().size());
+  }
+
+  @Test
+  void testDistinctHandlers() {
+    Handler other = new Handler() { };
+
+    HandlerTypes handlerTypes = new HandlerTypes();
+    handlerTypes.add(10, "LA;", HANDLER);
+    handlerTypes.add(20, "LB;", other);
+    handlerTypes.add(5, HandlerTypes.WILDCARD, HANDLER);
+
+    Handler[] handlers = handlerTypes.getDistinctHandlers();
+    assertEquals(2, handlers.length);
+    assertSame(other, handlers[0]);
+    assertSame(HANDLER, handlers[1]);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.other;
+
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.instruction.InsnTemplate;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class InsnTemplateTest {
+  @Test
+  void testInstantiate() {
+    ClassMethod method = new ClassFile(Opcodes.ACC_PUBLIC, "Test")
+      .visitMethod(Opcodes.ACC_STATIC, "test", "(I)I");
+
+    LabelNode start = new LabelNode();
+    LabelNode end = new LabelNode();
+    Insns code = method.getInstructions();
+    code.add(start);
+    code.varOp(Opcodes.ILOAD, 0);
+    code.varOp(Opcodes.ISTORE, 3);
+    code.jumpOp(Opcodes.GOTO, end);
+    code.add(end);
+    code.varOp(Opcodes.ILOAD, 3);
+    code.op(Opcodes.IRETURN);
+    method.addTryCatchBlocks(List.of(new TryCatchBlockNode(start, end, end, null)));
+
+    InsnTemplate template = new InsnTemplate(method);
+    assertEquals(14, template.maxVariable(var -> var + 10));
+
+    LabelNode exit = new LabelNode();
+    ClassMethod first = template.instantiate(var -> var + 10, exit);
+    ClassMethod second = template.instantiate(var -> var + 10, exit);
+
+    Insns firstCode = first.getInstructions();
+    assertEquals(code.size(), firstCode.size());
+    assertEquals(13, ((VarInsnNode) firstCode.get(2)).var);
+    assertEquals(14, first.maxVariable());
+
+    // Labels are unique per instance
+    LabelNode firstEnd = ((JumpInsnNode) firstCode.get(3)).label;
+    assertSame(firstCode.get(4), firstEnd);
+    assertNotSame(end, firstEnd);
+    assertNotSame(firstEnd, ((JumpInsnNode) second.getInstructions().get(3)).label);
+    assertSame(firstEnd, first.tryCatchBlocks.get(0).end);
+
+    // Returns jump to the exit
+    assertSame(exit, ((JumpInsnNode) firstCode.getLast()).label);
+
+    // Template is untouched
+    assertEquals(3, ((VarInsnNode) code.get(2)).var);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.other;
+
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class InsnsVariablesTest {
+  @Test
+  void testTracking() {
+    ClassMethod method = new ClassFile(Opcodes.ACC_PUBLIC, "Test")
+      .visitMethod(Opcodes.ACC_STATIC, "test", "(IJ)V");
+    Insns code = method.getInstructions();
+
+    assertEquals(4, method.maxVariable()); // Arguments only
+
+    code.varOp(Opcodes.ILOAD, 0);
+    AbstractInsnNode store = code.varOp(Opcodes.LSTORE, 5);
+    assertEquals(7, method.maxVariable());
+
+    Insns pending = new Insns();
+    pending.iincOp(9, 1);
+    code.insert(pending);
+    assertEquals(10, method.maxVariable());
+    assertEquals(0, pending.getVariableSize()); // Moved out
+
+    code.remove(code.getFirst()); // iinc
+    assertEquals(7, method.maxVariable());
+
+    code.remove(store);
+    assertEquals(4, method.maxVariable());
+
+    code.varOp(Opcodes.ASTORE, 6);
+    method.increaseVariableIndex(10); // Changed in place
+    assertEquals(17, method.maxVariable());
+
+    code.clear();
+    assertEquals(4, method.maxVariable());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.other;
+
+import io.github.usernugget.redefiner.changes.MethodChange;
+import io.github.usernugget.redefiner.handlers.InstructionRewriter;
+import io.github.usernugget.redefiner.handlers.RewritePass;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RewritePassTest {
+  private static final class Recorder implements InstructionRewriter {
+    private final String name;
+    private final int types;
+    private final List<String> events;
+
+    public Recorder(String name, int types, List<String> events) {
+      this.name = name;
+      this.types = types;
+      this.events = events;
+    }
+
+    @Override
+    public int getInstructionTypes() {
+      return this.types;
+    }
+
+    @Override
+    public Rewrite beginMethod(MethodChange change) {
+      return new Rewrite() {
+        @Override
+        public AbstractInsnNode rewrite(Insns code, AbstractInsnNode instruction) {
+          events.add(name + ':' + instruction.getOpcode());
+
+          // Constants are replaced with another instruction type
+          if (instruction.getOpcode() == Opcodes.ICONST_1) {
+            AbstractInsnNode replacement = new LdcInsnNode(1);
+            code.set(instruction, replacement);
+            return replacement;
+          }
+
+          return instruction;
+        }
+
+        @Override
+        public void finish() {
+          events.add(name + ":finish");
+        }
+      };
+    }
+  }
+
+  @Test
+  void testSinglePass() {
+    ClassFile mapping = new ClassFile(Opcodes.ACC_PUBLIC, "Mapping");
+    ClassMethod method = mapping.visitMethod(Opcodes.ACC_STATIC, "test", "()I");
+    method.getInstructions().op(Opcodes.ICONST_1);
+    method.getInstructions().op(Opcodes.IRETURN);
+
+    List<String> events = new ArrayList<>();
+    RewritePass.rewrite(
+      new MethodChange(null, null, null, null, mapping, null, method, null),
+      new Recorder("insn", InstructionRewriter.mask(AbstractInsnNode.INSN), events),
+      new Recorder("ldc", InstructionRewriter.mask(AbstractInsnNode.LDC_INSN), events),
+      new Recorder("both", InstructionRewriter.mask(AbstractInsnNode.INSN, AbstractInsnNode.LDC_INSN), events)
+    );
+
+    // Replacement is passed to the following rewriters, instructions are visited once
+    assertEquals(List.of(
+      "insn:" + Opcodes.ICONST_1,
+      "ldc:" + Opcodes.LDC,
+      "both:" + Opcodes.LDC,
+      "insn:" + Opcodes.IRETURN,
+      "both:" + Opcodes.IRETURN,
+      "insn:finish", "ldc:finish", "both:finish"
+    ), events);
+    assertEquals(Opcodes.LDC, method.instructions.getFirst().getOpcode());
+  }
+}
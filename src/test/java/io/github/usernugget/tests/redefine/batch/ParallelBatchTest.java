@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.batch;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParallelBatchTest {
+  public static class FirstClass {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  public static class SecondClass {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  public static class ThirdClass {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  @Mapping(targetClass = FirstClass.class)
+  public static final class FirstClassMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  @Mapping(targetClass = SecondClass.class)
+  public static final class SecondClassMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(2);
+    }
+  }
+
+  @Mapping(targetClass = ThirdClass.class)
+  public static final class ThirdClassMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(3);
+    }
+  }
+
+  @Test
+  void testParallelBatch() throws Throwable {
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (ClassRedefiner redefiner = new ClassRedefiner(
+      new StandardAttachTypes(),
+      new StandardHandlerTypes()
+    )) {
+      redefiner.setExecutor(executor);
+      redefiner.initializeAgent();
+      redefiner.transformClasses(List.of(
+        FirstClassMapping.class,
+        SecondClassMapping.class,
+        ThirdClassMapping.class
+      ));
+
+      assertEquals(1, FirstClass.test()); // Redefined
+      assertEquals(2, SecondClass.test()); // Redefined
+      assertEquals(3, ThirdClass.test()); // Redefined
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
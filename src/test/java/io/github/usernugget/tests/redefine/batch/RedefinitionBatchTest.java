@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.batch;
+
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.handlers.types.annotations.Tail;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RedefinitionBatchTest extends AbstractRedefineTest {
+  public static class FirstClass {
+    public static int test(boolean value) {
+      return 0;
+    }
+  }
+
+  public static class SecondClass {
+    public static int test(boolean value) {
+      return 0;
+    }
+
+    public static int counter;
+
+    public static void increment() {
+      counter++;
+    }
+  }
+
+  @Mapping(targetClass = FirstClass.class)
+  public static final class FirstClassMapping {
+    @Head
+    public static void test(boolean value) {
+      if (value) {
+        Op.returnOp(1);
+      }
+    }
+  }
+
+  @Mapping(targetClass = SecondClass.class)
+  public static final class SecondClassMapping {
+    @Head
+    public static void test(boolean value) {
+      if (value) {
+        Op.returnOp(2);
+      }
+    }
+  }
+
+  @Mapping(targetClass = SecondClass.class)
+  public static final class SecondClassIncrementMapping {
+    @Tail
+    public static void increment() {
+      SecondClass.counter += 10;
+    }
+  }
+
+  @Test
+  void testBatch() throws ClassNotFoundException {
+    REDEFINER.transformClasses(List.of(
+      FirstClassMapping.class,
+      SecondClassMapping.class,
+      SecondClassIncrementMapping.class
+    ));
+
+    assertEquals(1, FirstClass.test(true)); // Redefined
+    assertEquals(0, FirstClass.test(false)); // Original
+
+    assertEquals(2, SecondClass.test(true)); // Redefined
+    assertEquals(0, SecondClass.test(false)); // Original
+
+    SecondClass.increment();
+    assertEquals(11, SecondClass.counter); // Redefined by the second mapping
+  }
+}
@@ -21,6 +21,7 @@ import io.github.usernugget.tests.redefine.AbstractRedefineTest;
 import java.io.IOException;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class DumpClassTest extends AbstractRedefineTest {
@@ -35,7 +36,24 @@ public class DumpClassTest extends AbstractRedefineTest {
     assertEquals("test", classFile.methods.get(1).name);
   }
 
+  @Test
+  void testDumpClasses() throws IOException {
+    ClassFile[] classFiles = REDEFINER.getClassSerializer().readClasses(
+       ClassReader.SKIP_CODE, Tmp.class, Other.class, Tmp.class
+    );
+
+    assertEquals(3, classFiles.length);
+    assertEquals(Type.getInternalName(Tmp.class), classFiles[0].name);
+    assertEquals(Type.getInternalName(Other.class), classFiles[1].name);
+    assertEquals(Type.getInternalName(Tmp.class), classFiles[2].name);
+    assertEquals("other", classFiles[1].methods.get(1).name);
+  }
+
   public static final class Tmp {
     public void test() { }
   }
+
+  public static final class Other {
+    public void other() { }
+  }
 }
@@ -16,9 +16,16 @@
 
 package io.github.usernugget.tests.redefine.methods;
 
+import io.github.usernugget.redefiner.ClassRedefiner;
 import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
 import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
 import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.util.JavaInternals;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
 import io.github.usernugget.tests.redefine.AbstractRedefineTest;
 import java.io.IOException;
 import java.lang.reflect.Array;
@@ -30,13 +37,23 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CrossClassLoaderTest extends AbstractRedefineTest {
   // Class for ClassLoader A
@@ -79,6 +96,10 @@ public class CrossClassLoaderTest extends AbstractRedefineTest {
     public static int testStatic(boolean value) {
       return 0;
     }
+
+    public static int testOther(boolean value) {
+      return 0;
+    }
   }
 
   // Class for ClassLoader B
@@ -108,19 +129,84 @@ public class CrossClassLoaderTest extends AbstractRedefineTest {
     }
   }
 
+  @Mapping(targetClassName = "io.github.usernugget.tests.redefine.methods.CrossClassLoaderTest$A")
+  public static final class SharedMapping {
+    @Head
+    public static void testStatic(boolean value) {
+      if (value && B.alwaysTrue(B.class)) {
+        Op.returnOp(1);
+      }
+    }
+
+    @Head
+    public static void testOther(boolean value) {
+      if (value && B.alwaysTrue(B.class)) {
+        Op.returnOp(2);
+      }
+    }
+  }
+
   @Test
-  void testInjection() throws Throwable {
+  void testSharedWrappers() throws Throwable {
+    AtomicInteger defined = new AtomicInteger();
+
     try (
-      FakeClassLoader a = new FakeClassLoader(
-        A.class.getName(),
-        getClass().getClassLoader().getResource(A.class.getName().replace('.', '/') + ".class"),
-        ClassLoader.getPlatformClassLoader()
-      );
-      FakeClassLoader b = new FakeClassLoader(
-        B.class.getName(),
-        getClass().getClassLoader().getResource(B.class.getName().replace('.', '/') + ".class"),
-        a
+      FakeClassLoader a = createLoaderA();
+      FakeClassLoader b = createLoaderB(a);
+      ClassRedefiner redefiner = new ClassRedefiner(
+        new StandardAttachTypes(),
+        new StandardHandlerTypes()
       )
+    ) {
+      redefiner.setClassSerializer(new ClassSerializer(redefiner) {
+        @Override
+        public Class<?> defineClass(ClassFile classFile, ClassLoader classLoader) {
+          defined.incrementAndGet();
+          return super.defineClass(classFile, classLoader);
+        }
+      });
+      redefiner.initializeAgent();
+      defined.set(0); // Agent classes
+
+      Class<?> A = a.loadClass(A.class.getName());
+
+      // Both methods share one interface, one accessor and one code class,
+      // hidden accessors are defined without the serializer
+      int classes = JavaInternals.supportsHiddenClasses() ? 2 : 3;
+      redefiner.transformClass(b, SharedMapping.class);
+      assertEquals(classes, defined.get());
+      assertEquals(1, A.getDeclaredMethod("testStatic", boolean.class).invoke(null, true));
+      assertEquals(2, A.getDeclaredMethod("testOther", boolean.class).invoke(null, true));
+
+      // Accessors are reused by the next transform
+      assertTrue(redefiner.revert(A));
+      redefiner.transformClass(b, SharedMapping.class);
+      assertEquals(classes, defined.get());
+      assertEquals(1, A.getDeclaredMethod("testStatic", boolean.class).invoke(null, true));
+    }
+  }
+
+  private static FakeClassLoader createLoaderA() throws Throwable {
+    return new FakeClassLoader(
+      A.class.getName(),
+      CrossClassLoaderTest.class.getClassLoader().getResource(A.class.getName().replace('.', '/') + ".class"),
+      ClassLoader.getPlatformClassLoader()
+    );
+  }
+
+  private static FakeClassLoader createLoaderB(ClassLoader a) throws Throwable {
+    return new FakeClassLoader(
+      B.class.getName(),
+      CrossClassLoaderTest.class.getClassLoader().getResource(B.class.getName().replace('.', '/') + ".class"),
+      a
+    );
+  }
+
+  @Test
+  void testInjection() throws Throwable {
+    try (
+      FakeClassLoader a = createLoaderA();
+      FakeClassLoader b = createLoaderB(a)
     ) {
       REDEFINER.transformClass(b, BMapping.class);
 
@@ -133,6 +219,70 @@ public class CrossClassLoaderTest extends AbstractRedefineTest {
     }
   }
 
+  // Wrapper calls in the transformed A.testStatic
+  private static List<String> transformWrapperCalls(Class<?> mapping) throws Throwable {
+    List<String> calls = new ArrayList<>();
+
+    try (
+      FakeClassLoader a = createLoaderA();
+      FakeClassLoader b = createLoaderB(a);
+      ClassRedefiner redefiner = new ClassRedefiner(
+        new StandardAttachTypes(),
+        new StandardHandlerTypes()
+      )
+    ) {
+      redefiner.setClassSerializer(new ClassSerializer(redefiner) {
+        @Override
+        public byte[] writeClassIncremental(ClassFile classFile, ClassLoader classLoader) {
+          ClassMethod method = classFile.findMethod("testStatic", "(Z)I");
+          if (classFile.name.equals(Type.getInternalName(A.class)) && method != null) {
+            for (AbstractInsnNode instruction : method.getInstructions()) {
+              if (instruction instanceof InvokeDynamicInsnNode &&
+                  ((InvokeDynamicInsnNode) instruction).bsm.getName().equals("$bootstrap")) {
+                calls.add("indy " + ((InvokeDynamicInsnNode) instruction).desc);
+              } else if (instruction.getOpcode() == Opcodes.INVOKESTATIC &&
+                         ((MethodInsnNode) instruction).itf) {
+                calls.add("static " + ((MethodInsnNode) instruction).desc);
+              }
+            }
+          }
+
+          return super.writeClassIncremental(classFile, classLoader);
+        }
+      });
+      redefiner.initializeAgent();
+
+      redefiner.transformClass(b, mapping);
+      Class<?> A = a.loadClass(A.class.getName());
+      assertEquals(1024, A.getDeclaredMethod("testStatic", boolean.class).invoke(null, true));
+    }
+
+    return calls;
+  }
+
+  @Test
+  void testInvokeDynamicWrappers() throws Throwable {
+    List<String> calls = transformWrapperCalls(BMapping.class);
+
+    // B.class, B::alwaysTrue, B.create() and (B) only use types A can resolve
+    assertTrue(calls.contains("indy ()Ljava/lang/Class;"));
+    assertTrue(calls.contains("indy ()Ljava/util/function/Function;"));
+    assertTrue(calls.contains("indy ()Ljava/lang/Object;"));
+    assertTrue(calls.contains("indy (Ljava/lang/Object;)Ljava/lang/Object;"));
+  }
+
+  @Test
+  void testStaticWrapperFallback() throws Throwable {
+    List<String> calls = transformWrapperCalls(BMapping.class);
+
+    // B[] can't be resolved by the loader of A, so the call site could not be linked
+    String b = Type.getDescriptor(B.class);
+    assertTrue(calls.contains("static (I)[" + b));
+    assertTrue(calls.contains("static (IIII)[[[[" + b));
+    assertFalse(calls.contains("indy (I)[" + b));
+    assertEquals(6, calls.size());
+  }
+
   public static final Charset CHARSET = new Charset("hi", null) {
     @Override
     public boolean contains(Charset charset) {
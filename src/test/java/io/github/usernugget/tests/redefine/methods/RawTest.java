@@ -24,6 +24,9 @@ import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import io.github.usernugget.tests.redefine.AbstractRedefineTest;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class RawTest extends AbstractRedefineTest {
@@ -79,6 +82,45 @@ public class RawTest extends AbstractRedefineTest {
     }
   }
 
+  public static class LocalClass {
+    public static int local() {
+      return 0;
+    }
+
+    public static int edited(int value) {
+      int result = value;
+      if (value > 0) {
+        result++;
+      }
+
+      return result;
+    }
+  }
+
+  @Mapping(targetClass = LocalClass.class)
+  public static final class LocalClassMapping {
+    // Edits another method in place, without findTargetMethod
+    @Raw
+    public static void local(MethodChange change) {
+      ClassMethod target = change.getTargetClass().findMethod("edited", "(I)I");
+      for (AbstractInsnNode instruction : target.instructions) {
+        if (instruction instanceof VarInsnNode && ((VarInsnNode) instruction).var == 1) {
+          ((VarInsnNode) instruction).var = 2;
+        } else if (instruction instanceof IincInsnNode) {
+          ((IincInsnNode) instruction).var = 2;
+        }
+      }
+    }
+  }
+
+  @Test
+  void testInPlaceEdit() throws ClassNotFoundException {
+    REDEFINER.transformClass(LocalClassMapping.class);
+
+    assertEquals(2, LocalClass.edited(1));
+    assertEquals(0, LocalClass.edited(0));
+  }
+
   @Test
   void testInjection() throws ClassNotFoundException {
     REDEFINER.transformClass(PlainClassMapping.class);
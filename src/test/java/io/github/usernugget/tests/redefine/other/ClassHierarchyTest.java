@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.util.asm.io.ClassHierarchy;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class ClassHierarchyTest extends AbstractRedefineTest {
+  public static boolean initialized;
+
+  public interface Shape { }
+
+  public static class Base implements Shape {
+    static {
+      initialized = true;
+    }
+  }
+
+  public static class Circle extends Base { }
+
+  public static class Square extends Base { }
+
+  @Test
+  void testCommonSuperClass() {
+    ClassHierarchy hierarchy = REDEFINER.getClassSerializer().getHierarchy();
+    ClassLoader classLoader = ClassHierarchyTest.class.getClassLoader();
+
+    String base = Type.getInternalName(Base.class);
+    String circle = Type.getInternalName(Circle.class);
+    String square = Type.getInternalName(Square.class);
+    String shape = Type.getInternalName(Shape.class);
+
+    assertEquals(base, hierarchy.getCommonSuperClass(circle, square, classLoader));
+    assertEquals(base, hierarchy.getCommonSuperClass(base, circle, classLoader));
+    assertEquals(shape, hierarchy.getCommonSuperClass(shape, square, classLoader));
+    assertEquals(ClassHierarchy.OBJECT, hierarchy.getCommonSuperClass(
+      circle, "java/lang/String", classLoader
+    ));
+
+    assertFalse(initialized); // Resolved from bytecode
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.util.asm.ClassField;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.io.ClassStructure;
+import io.github.usernugget.redefiner.util.asm.io.ClassStructureCache;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClassStructureCacheTest extends AbstractRedefineTest {
+  public static final class First { }
+  public static final class Second { }
+  public static final class Third { }
+
+  public static final class Members {
+    private static int counter;
+
+    public void test() { }
+
+    public static int test(int value) {
+      return value;
+    }
+  }
+
+  @Test
+  void testStructure() throws IOException {
+    ClassStructure structure = REDEFINER.getStructureCache().readCached(Members.class);
+    assertEquals(3, structure.getMethodCount()); // With <init>
+    assertEquals(1, structure.getFieldCount());
+
+    ClassMethod method = structure.findMethod("test", "(I)I");
+    assertTrue(method.isStatic());
+    assertEquals(Type.getInternalName(Members.class), method.owner.name);
+    assertSame(method, structure.findMethod("test", "(I)I")); // Reused
+
+    ClassField field = structure.findField("counter", "I");
+    assertTrue(field.isStatic() && field.isPrivate());
+
+    assertNull(structure.findMethod("test", "(J)I"));
+    assertNull(structure.findField("counter", "J"));
+  }
+
+  @Test
+  void testEviction() throws IOException {
+    ClassStructureCache cache = new ClassStructureCache(REDEFINER, 2);
+
+    ClassStructure first = cache.readCached(First.class);
+    assertSame(first, cache.readCached(First.class));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    cache.readCached(Second.class);
+    cache.readCached(First.class); // Second is the least recently used now
+    cache.readCached(Third.class);
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertSame(first, cache.readCached(First.class));
+
+    cache.readCached(Second.class); // Evicts Third
+    cache.readCached(Third.class); // Evicts First
+    assertEquals(5, cache.getMissCount());
+    assertNotSame(first, cache.readCached(First.class)); // Read again
+  }
+
+  @Test
+  void testCustomCache() throws IOException {
+    ClassStructureCache defaultCache = REDEFINER.getStructureCache();
+    ClassStructureCache cache = new ClassStructureCache(REDEFINER, 1);
+
+    REDEFINER.setStructureCache(cache);
+    try {
+      assertSame(cache, REDEFINER.getStructureCache());
+
+      REDEFINER.getStructureCache().readCached(First.class);
+      REDEFINER.getStructureCache().readCached(Second.class);
+      assertEquals(1, cache.size());
+      assertEquals(1, cache.getEvictionCount());
+    } finally {
+      REDEFINER.setStructureCache(defaultCache);
+    }
+  }
+}
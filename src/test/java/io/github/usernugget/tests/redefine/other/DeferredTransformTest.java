@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.impl.InstrumentationAgent;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeferredTransformTest extends AbstractRedefineTest {
+  private static final String NOT_LOADED = "io.github.usernugget.tests.redefine.other.DeferredTransformTest$NotLoaded";
+
+  // Copied into a fresh classloader, so that copy isn't loaded before the mapping is deferred
+  public static class NotLoaded {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  public static class Loaded {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  @Mapping(targetClassName = NOT_LOADED)
+  public static final class NotLoadedMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  @Mapping(targetClassName = "io.github.usernugget.tests.redefine.other.DeferredTransformTest$Loaded")
+  public static final class LoadedMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(2);
+    }
+  }
+
+  // Defines its own copy of NotLoaded instead of delegating to the test classloader
+  private static final class IsolatedClassLoader extends ClassLoader {
+    public IsolatedClassLoader() {
+      super(DeferredTransformTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(NOT_LOADED)) {
+        return super.loadClass(name, resolve);
+      }
+
+      synchronized (this.getClassLoadingLock(name)) {
+        Class<?> klass = this.findLoadedClass(name);
+        if (klass == null) {
+          try (InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+            byte[] classBytes = in.readAllBytes();
+            klass = this.defineClass(name, classBytes, 0, classBytes.length);
+          } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+          }
+        }
+
+        return klass;
+      }
+    }
+  }
+
+  @Test
+  void testDeferred() throws Throwable {
+    ClassLoader loader = new IsolatedClassLoader();
+    assertTrue(REDEFINER.transformClassDeferred(loader, NotLoadedMapping.class));
+
+    Class<?> notLoaded = loader.loadClass(NOT_LOADED);
+    assertSame(loader, notLoaded.getClassLoader());
+    assertEquals(1, notLoaded.getDeclaredMethod("test").invoke(null)); // Transformed on definition
+
+    // Nothing was redefined, so there's nothing to revert
+    InstrumentationAgent agent = (InstrumentationAgent) REDEFINER.getAgent();
+    assertFalse(agent.getSnapshots().contains(notLoaded));
+  }
+
+  @Test
+  void testLoaded() throws ClassNotFoundException {
+    assertEquals(0, Loaded.test());
+
+    assertFalse(REDEFINER.transformClassDeferred(LoadedMapping.class));
+    assertEquals(2, Loaded.test()); // Redefined right away
+
+    assertTrue(REDEFINER.revert(Loaded.class));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.changes.ClassChange;
+import io.github.usernugget.redefiner.handlers.Handler;
+import io.github.usernugget.redefiner.handlers.HandlerTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IncrementalFramesTest extends AbstractRedefineTest {
+  public static class Tmp {
+    public static int modified(int value) {
+      return value > 0 ? value : -value;
+    }
+
+    public static int untouched(int value) {
+      int sum = 0;
+      for (int i = 0; i < value; i++) {
+        sum += i % 2 == 0 ? i : 1;
+      }
+
+      return sum;
+    }
+  }
+
+  @Mapping(targetClass = Tmp.class)
+  public static final class TmpMapping {
+    @Head
+    public static void modified(int value) {
+      if (value == 0) {
+        Op.returnOp(100);
+      }
+    }
+  }
+
+  public static class ThirdPartyClass {
+    public static int local() {
+      return 0;
+    }
+
+    public static int edited(int value) {
+      int result = value;
+      if (value > 0) {
+        result++;
+      }
+
+      return result;
+    }
+  }
+
+  @Mapping(targetClass = ThirdPartyClass.class)
+  public static final class ThirdPartyClassMapping {
+    @Head
+    public static void local() {
+      Op.returnOp(1);
+    }
+  }
+
+  // Edits another method in place, without marking it
+  public static final class InPlaceHandler implements Handler {
+    @Override
+    public void finishClass(ClassChange change) {
+      if (change.getTargetJavaClass() != ThirdPartyClass.class) {
+        return;
+      }
+
+      ClassMethod target = change.getTargetClass().findMethod("edited", "(I)I");
+      for (AbstractInsnNode instruction : target.instructions) {
+        if (instruction instanceof VarInsnNode && ((VarInsnNode) instruction).var == 1) {
+          ((VarInsnNode) instruction).var = 2;
+        } else if (instruction instanceof IincInsnNode) {
+          ((IincInsnNode) instruction).var = 2;
+        }
+      }
+    }
+  }
+
+  @Test
+  void testDirtyTracking() throws IOException {
+    ClassSerializer serializer = REDEFINER.getClassSerializer();
+    ClassFile classFile = serializer.readClass(Tmp.class, 0);
+
+    ClassMethod method = classFile.findMethod("untouched", "(I)I");
+    assertFalse(method.isDirty());
+
+    method.getInstructions().op(0); // NOP
+    assertTrue(method.isDirty());
+  }
+
+  @Test
+  void testIncrementalFrames() throws ClassNotFoundException {
+    REDEFINER.transformClass(TmpMapping.class);
+
+    assertEquals(100, Tmp.modified(0)); // Redefined
+    assertEquals(5, Tmp.modified(-5)); // Original
+    assertEquals(8, Tmp.untouched(5)); // Frames copied
+  }
+
+  @Test
+  void testThirdPartyHandler() throws Throwable {
+    assertFalse(REDEFINER.getHandlerTypes().mayEditTargetsInPlace());
+
+    HandlerTypes handlerTypes = new StandardHandlerTypes();
+    handlerTypes.add(100, HandlerTypes.WILDCARD, new InPlaceHandler());
+    assertTrue(handlerTypes.mayEditTargetsInPlace());
+
+    try (ClassRedefiner redefiner = new ClassRedefiner(new StandardAttachTypes(), handlerTypes)) {
+      redefiner.initializeAgent();
+      redefiner.transformClass(ThirdPartyClassMapping.class);
+    }
+
+    assertEquals(1, ThirdPartyClass.local());
+    assertEquals(2, ThirdPartyClass.edited(1)); // Frames recomputed
+    assertEquals(0, ThirdPartyClass.edited(0));
+  }
+}
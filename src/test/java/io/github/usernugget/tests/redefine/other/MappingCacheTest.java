@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.handlers.types.annotations.Tail;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.ClassMethod;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+public class MappingCacheTest extends AbstractRedefineTest {
+  public static final class Tmp {
+    public static int test() {
+      return 1;
+    }
+  }
+
+  public static final class OrderedMapping {
+    @Head
+    public static void head() {
+    }
+
+    public static void plain() {
+    }
+
+    @Tail
+    public static void tail() {
+    }
+  }
+
+  @Test
+  void testPriorityOrder() throws IOException {
+    ClassFile mapping = REDEFINER.getMappingCache().readMapping(OrderedMapping.class);
+
+    assertEquals("tail", mapping.methods.get(0).name); // Tail has a higher priority than Head
+    assertEquals("head", mapping.methods.get(1).name);
+  }
+
+  @Test
+  void testCopyOnRead() throws IOException {
+    ClassFile first = REDEFINER.getMappingCache().readMapping(Tmp.class);
+    ClassFile second = REDEFINER.getMappingCache().readMapping(Tmp.class);
+
+    assertNotSame(first, second);
+
+    ClassMethod method = first.findMethod("test", "()I");
+    int size = method.instructions.size();
+    method.getInstructions().clear();
+
+    assertEquals(size, second.findMethod("test", "()I").instructions.size());
+    assertEquals(size, REDEFINER.getMappingCache().readMapping(Tmp.class)
+      .findMethod("test", "()I").instructions.size());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.agent.impl.InstrumentationAgent;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.util.JavaInternals;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodType;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SharedAgentTest extends AbstractRedefineTest {
+  public static class Target {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  @Mapping(targetClass = Target.class)
+  public static final class TargetMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  // Never defined, so the transformation stays pending
+  @Mapping(targetClassName = "io.github.usernugget.tests.redefine.other.SharedAgentTest$Missing")
+  public static final class MissingMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  // Retransformation capable transformers registered in the instrumentation
+  private static int transformerCount(Instrumentation instrumentation) {
+    try {
+      Class<?> managerClass = Class.forName("sun.instrument.TransformerManager");
+      Object manager = JavaInternals.TRUSTED.findGetter(
+        instrumentation.getClass(), "mRetransfomableTransformerManager", managerClass
+      ).invoke(instrumentation);
+
+      return (int) JavaInternals.TRUSTED.findVirtual(
+        managerClass, "getTransformerCount", MethodType.methodType(int.class)
+      ).invoke(manager);
+    } catch (Throwable throwable) {
+      throw new IllegalStateException("failed to count transformers", throwable);
+    }
+  }
+
+  @Test
+  void testSharedInstrumentation() throws Throwable {
+    try (ClassRedefiner redefiner = new ClassRedefiner(
+      new StandardAttachTypes(),
+      new StandardHandlerTypes()
+    )) {
+      redefiner.initializeAgent();
+
+      // Attached once per process
+      assertSame(
+        ((InstrumentationAgent) REDEFINER.getAgent()).getInstrumentation(),
+        ((InstrumentationAgent) redefiner.getAgent()).getInstrumentation()
+      );
+
+      // The shared transformer is registered only while a transformation is pending
+      Instrumentation instrumentation = ((InstrumentationAgent) redefiner.getAgent()).getInstrumentation();
+      assertEquals(0, transformerCount(instrumentation));
+
+      redefiner.transformClass(TargetMapping.class);
+      assertEquals(1, Target.test());
+      assertTrue(redefiner.revert(Target.class));
+      assertEquals(0, transformerCount(instrumentation));
+
+      assertTrue(redefiner.transformClassDeferred(MissingMapping.class));
+      assertEquals(1, transformerCount(instrumentation));
+    }
+
+    // Closing the redefiner drops its pending route
+    Instrumentation instrumentation = ((InstrumentationAgent) REDEFINER.getAgent()).getInstrumentation();
+    assertEquals(0, transformerCount(instrumentation));
+
+    // The shared transformer still serves the remaining redefiner
+    REDEFINER.transformClass(TargetMapping.class);
+    assertEquals(1, Target.test());
+    assertTrue(REDEFINER.revert(Target.class));
+    assertEquals(0, Target.test());
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.other;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.changes.MethodChange;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.redefiner.handlers.types.annotations.Raw;
+import io.github.usernugget.redefiner.util.JavaInternals;
+import io.github.usernugget.redefiner.util.asm.ClassFile;
+import io.github.usernugget.redefiner.util.asm.instruction.Insns;
+import io.github.usernugget.redefiner.util.asm.io.ClassSerializer;
+import io.github.usernugget.redefiner.util.asm.io.TransformCache;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TransformCacheTest extends AbstractRedefineTest {
+  public static class Target {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  @Mapping(targetClass = Target.class)
+  public static final class TargetMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  @Mapping(targetClass = Target.class)
+  public static final class RawTargetMapping {
+    @Raw
+    public static void test(MethodChange change) {
+      Insns targetCode = change.findTargetMethod().getInstructions();
+      targetCode.clear();
+      targetCode.op(Opcodes.ICONST_2);
+      targetCode.op(Opcodes.IRETURN);
+    }
+  }
+
+  @Test
+  void testReopen() throws Throwable {
+    Path path = Files.createTempFile("transform-cache", ".bin");
+    try {
+      byte[] key = new byte[32];
+      key[0] = 1;
+
+      try (TransformCache cache = new TransformCache(path)) {
+        cache.put(key, new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get(key));
+      }
+
+      // A torn record is dropped, the rest is kept
+      Files.write(path, new byte[] { 9, 9, 9, 9, 9, 9, 9, 9 }, StandardOpenOption.APPEND);
+
+      byte[] otherKey = new byte[32];
+      otherKey[0] = 2;
+
+      try (TransformCache cache = new TransformCache(path)) {
+        assertEquals(1, cache.size());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get(key));
+        assertNull(cache.get(otherKey));
+
+        cache.put(otherKey, new byte[] { 4 });
+      }
+
+      try (TransformCache cache = new TransformCache(path)) {
+        assertEquals(2, cache.size());
+        assertArrayEquals(new byte[] { 4 }, cache.get(otherKey));
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  void testSharedFile() throws Throwable {
+    Path path = Files.createTempFile("transform-cache", ".bin");
+    try {
+      byte[] firstKey = new byte[32];
+      firstKey[0] = 1;
+      byte[] secondKey = new byte[32];
+      secondKey[0] = 2;
+      byte[] thirdKey = new byte[32];
+      thirdKey[0] = 3;
+
+      // Like two processes, each one appends after records of the other
+      try (
+        TransformCache first = new TransformCache(path);
+        TransformCache second = new TransformCache(path)
+      ) {
+        first.put(firstKey, new byte[] { 1 });
+        second.put(secondKey, new byte[] { 2 });
+        first.put(thirdKey, new byte[] { 3 });
+
+        assertArrayEquals(new byte[] { 1 }, second.get(firstKey));
+        assertArrayEquals(new byte[] { 2 }, first.get(secondKey));
+        assertArrayEquals(new byte[] { 1 }, first.get(firstKey));
+      }
+
+      try (TransformCache cache = new TransformCache(path)) {
+        assertEquals(3, cache.size());
+        assertArrayEquals(new byte[] { 3 }, cache.get(thirdKey));
+
+        // A record replaced behind the index is a miss
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+          channel.write(ByteBuffer.wrap(new byte[] { 9 }), Files.size(path) - 1);
+        }
+
+        assertNull(cache.get(thirdKey));
+        assertArrayEquals(new byte[] { 2 }, cache.get(secondKey));
+      }
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  // Fresh copy of the untouched Target class, as if it was loaded after a restart
+  private static Class<?> defineTarget(ClassLoader classLoader) throws Throwable {
+    String name = Target.class.getName();
+    try (InputStream in = Target.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+      byte[] classBytes = in.readAllBytes();
+      return JavaInternals.defineClass(
+        REDEFINER.getClassSerializer().readClass(classBytes, 0), classLoader, classBytes
+      );
+    }
+  }
+
+  @Test
+  void testCachedTransform() throws Throwable {
+    Path path = Files.createTempFile("transform-cache", ".bin");
+    AtomicInteger written = new AtomicInteger();
+
+    try (
+      TransformCache cache = new TransformCache(path);
+      ClassRedefiner redefiner = new ClassRedefiner(
+        new StandardAttachTypes(),
+        new StandardHandlerTypes()
+      );
+      URLClassLoader firstLoader = new URLClassLoader(new URL[0], TransformCacheTest.class.getClassLoader());
+      URLClassLoader secondLoader = new URLClassLoader(new URL[0], TransformCacheTest.class.getClassLoader())
+    ) {
+      redefiner.setClassSerializer(new ClassSerializer(redefiner) {
+        @Override
+        public byte[] writeClassIncremental(ClassFile classFile, ClassLoader classLoader) {
+          written.incrementAndGet();
+          return super.writeClassIncremental(classFile, classLoader);
+        }
+      });
+      redefiner.setTransformCache(cache);
+      redefiner.initializeAgent();
+
+      Class<?> first = defineTarget(firstLoader);
+      redefiner.transformClass(first, TargetMapping.class);
+      assertEquals(1, first.getDeclaredMethod("test").invoke(null));
+      assertEquals(1, written.get());
+      assertEquals(1, cache.size());
+
+      // Same class bytes and mapping, the transformed bytes are read from the cache
+      Class<?> second = defineTarget(secondLoader);
+      redefiner.transformClass(second, TargetMapping.class);
+      assertEquals(1, second.getDeclaredMethod("test").invoke(null));
+      assertEquals(1, written.get()); // Handlers are skipped
+      assertEquals(1, cache.size());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  void testRawNotCached() throws Throwable {
+    Path path = Files.createTempFile("transform-cache", ".bin");
+
+    try (
+      TransformCache cache = new TransformCache(path);
+      ClassRedefiner redefiner = new ClassRedefiner(
+        new StandardAttachTypes(),
+        new StandardHandlerTypes()
+      );
+      URLClassLoader loader = new URLClassLoader(new URL[0], TransformCacheTest.class.getClassLoader())
+    ) {
+      redefiner.setTransformCache(cache);
+      redefiner.initializeAgent();
+
+      Class<?> target = defineTarget(loader);
+      redefiner.transformClass(target, RawTargetMapping.class);
+      assertEquals(2, target.getDeclaredMethod("test").invoke(null));
+      assertEquals(0, cache.size());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
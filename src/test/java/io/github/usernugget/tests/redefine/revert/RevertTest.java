@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 UserNugget/class-redefiner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.usernugget.tests.redefine.revert;
+
+import io.github.usernugget.redefiner.ClassRedefiner;
+import io.github.usernugget.redefiner.Mapping;
+import io.github.usernugget.redefiner.agent.attach.StandardAttachTypes;
+import io.github.usernugget.redefiner.handlers.Op;
+import io.github.usernugget.redefiner.handlers.StandardHandlerTypes;
+import io.github.usernugget.redefiner.handlers.types.annotations.Head;
+import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RevertTest extends AbstractRedefineTest {
+  public static class PlainClass {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  public static class OtherClass {
+    public static int test() {
+      return 0;
+    }
+  }
+
+  @Mapping(targetClass = PlainClass.class)
+  public static final class PlainClassMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(1);
+    }
+  }
+
+  @Mapping(targetClass = OtherClass.class)
+  public static final class OtherClassMapping {
+    @Head
+    public static void test() {
+      Op.returnOp(2);
+    }
+  }
+
+  @Mapping(targetClass = OtherClass.class)
+  public static final class FailingMapping {
+    @Head(method = "missing()I")
+    public static void test() {
+      Op.returnOp(3);
+    }
+  }
+
+  @Test
+  void testFailedRewrite() {
+    assertThrows(RuntimeException.class, () -> REDEFINER.transformClass(FailingMapping.class));
+    assertEquals(0, OtherClass.test());
+
+    // Nothing was redefined, so there's no snapshot
+    assertFalse(REDEFINER.revert(OtherClass.class));
+  }
+
+  @Test
+  void testRevert() throws ClassNotFoundException {
+    assertFalse(REDEFINER.revert(PlainClass.class)); // Not modified yet
+
+    REDEFINER.transformClass(PlainClassMapping.class);
+    assertEquals(1, PlainClass.test()); // Redefined
+
+    assertTrue(REDEFINER.revert(PlainClass.class));
+    assertEquals(0, PlainClass.test()); // Original
+
+    REDEFINER.transformClass(PlainClassMapping.class);
+    assertEquals(1, PlainClass.test()); // Redefined again
+
+    assertTrue(REDEFINER.revert(PlainClass.class));
+    assertEquals(0, PlainClass.test()); // Original
+  }
+
+  @Test
+  void testRevertAll() throws Throwable {
+    try (ClassRedefiner redefiner = new ClassRedefiner(
+      new StandardAttachTypes(),
+      new StandardHandlerTypes()
+    )) {
+      redefiner.initializeAgent();
+      redefiner.transformClasses(List.of(PlainClassMapping.class, OtherClassMapping.class));
+
+      assertEquals(1, PlainClass.test()); // Redefined
+      assertEquals(2, OtherClass.test()); // Redefined
+
+      assertEquals(2, redefiner.revertAll());
+
+      assertEquals(0, PlainClass.test()); // Original
+      assertEquals(0, OtherClass.test()); // Original
+    }
+  }
+}
@@ -22,12 +22,15 @@ import io.github.usernugget.redefiner.util.asm.ClassMethod;
 import io.github.usernugget.redefiner.util.asm.instruction.Insns;
 import io.github.usernugget.redefiner.util.asm.reflect.Reflection;
 import io.github.usernugget.tests.redefine.AbstractRedefineTest;
+import java.lang.reflect.Field;
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
 import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
 import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.RETURN;
 
@@ -81,4 +84,44 @@ public class InitializerTest extends AbstractRedefineTest {
 
     definedInvoker.getDeclaredMethod("invoke").invoke(null);
   }
+
+  @Test
+  void testHiddenAccessor() throws Throwable {
+    ClassLoader classLoader = InitializerTest.class.getClassLoader();
+
+    ClassFile klass = new ClassFile(ACC_PUBLIC, "a/b/c/e/Hidden");
+    klass.visitSimpleInitializer();
+
+    ClassMethod method = klass.visitMethod(
+      ACC_PRIVATE | ACC_STATIC,
+      "PRIVATE_METHOD", "()I"
+    );
+
+    method.getInstructions().ldc(42);
+    method.getInstructions().op(IRETURN);
+
+    JavaInternals.defineClass(
+      klass, classLoader,
+      REDEFINER.getClassSerializer().writeClass(klass, classLoader, ClassWriter.COMPUTE_FRAMES)
+    );
+
+    Reflection generator = new Reflection();
+    ClassMethod wrapper = generator.wrapMethod(method);
+    generator.defineClasses(REDEFINER.getClassSerializer(), classLoader, classLoader);
+
+    Class<?> wrapperClass = Class.forName(
+      generator.getTargetInterface().name.replace('/', '.'), false, classLoader
+    );
+    assertEquals(42, wrapperClass.getMethod(wrapper.name).invoke(null));
+
+    // Private members of a single owner are reached by a hidden nestmate
+    if (JavaInternals.supportsHiddenClasses()) {
+      Field impl = wrapperClass.getDeclaredField("IMPL");
+      impl.setAccessible(true);
+
+      Class<?> accessorClass = impl.get(null).getClass();
+      assertEquals(true, Class.class.getMethod("isHidden").invoke(accessorClass));
+      assertEquals(classLoader, accessorClass.getClassLoader());
+    }
+  }
 }